@@ -0,0 +1,75 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import benchmarks.Workloads;
+
+/*
+ * This class implements the measured operations on a synthetic building (see Workloads and SyntheticMapGenerator).
+ * The pose of the robot and the scan are the same for every call, so every call does the same work.
+ */
+public class LocalizationWorkloads implements Workloads {
+
+	private BufferedImage map;
+	private OccupancyGrid grid;
+	private ModelParameters parameters;
+	private PositionFinder finder;
+	private MeasurementGenerator generator;
+	private double[] scan;
+	private double[][] likelihoods;
+	private SplittableRandom random;
+
+	public void setUp(int width, int height, double clutterDensity, int beams, long seed) throws Exception {
+		Random random = new Random(seed);
+		map = new SyntheticMapGenerator(5, clutterDensity).generatePicture(width, height, seed);
+		grid = new OccupancyGrid(map);
+
+		// the beams cover the angle range of 270 degrees of the laser
+		int angleStep = 270 / (beams - 1);
+		parameters = new ModelParameters(10, 5, angleStep * (beams - 1) / 2, angleStep, 0.8, 0.4, 0.1);
+		int[] free = grid.getFreeCells();
+		int cell = free[random.nextInt(free.length)];
+		RobotPosition position = new RobotPosition(grid.getX(cell), grid.getY(cell), random.nextInt(360));
+		generator = new MeasurementGenerator(null, map, map, position, parameters);
+
+		finder = new PositionFinder(grid, null);
+		finder.setScanAngles(parameters);
+		likelihoods = finder.getLowestDistanceLikelihoodMap();
+		// the pose search expects the beams in reverse order of the simulation (see ScanSimulator.reverse)
+		scan = generator.getRaycastRealMeasurement().clone();
+		ScanSimulator.reverse(scan);
+		this.random = new SplittableRandom(seed);
+	}
+
+	public Object generateFields() {
+		PositionFinder fresh = new PositionFinder(grid, null);
+		fresh.getSummedUpLikelihoodMap();
+		return fresh.getLowestDistanceLikelihoodMap();
+	}
+
+	public Object generateMap() {
+		return finder.generateMap(scan, true);
+	}
+
+	public Object generatePicture() {
+		return finder.generatePicture(likelihoods);
+	}
+
+	public Object bruteForceRealMeasurement() {
+		return generator.getBruteForceRealMeasurement();
+	}
+
+	public Object exploreLaserSpace() {
+		generator.exploreLaserSpace(generator.getLaserSpace());
+		return generator.getRealMeasurements();
+	}
+
+	public Object generateLaserMeasurements() {
+		ScanSimulator simulator = generator.getSimulator();
+		double[] measurements = new double[scan.length];
+		for (int i = 0; i < scan.length; i++) {
+			measurements[i] = simulator.generateLaserMeasurement(scan[i] >= 10 ? -1 : scan[i], random);
+		}
+		return measurements;
+	}
+}
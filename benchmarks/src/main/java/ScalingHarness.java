@@ -0,0 +1,276 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+ * This class runs complete localization workloads on synthetic maps (see SyntheticMapGenerator)
+ * and reports how they scale with the size of the map, the clutter and the number of threads.
+ * For every map, scans are simulated at random free poses and the robot is localized in every scan by the pose search.
+ * Every combination of map and thread count is written as one JSON object per line to the standard output:
+ * the time to create the likelihood map, the throughput and latency percentiles of the search,
+ * the speedup over the first thread count, the fraction of scans localized correctly, the poses and blocks
+ * the search has evaluated per scan (see Metrics) and the peak heap.
+ * With noise=false, the scans are the expected scans without the noise of the sensor model, which the pose search
+ * localizes correctly except for ambiguous (e.g. symmetric) rooms. With the noise of the assignment parameters,
+ * a single scan rarely suffices. With clearance=N, the robot poses and the pose search are restricted to the cells
+ * more than N cells away from any obstacle (see CandidateIndex).
+ * The options are given as name=value arguments, lists separated by commas, e.g.
+ *   java -cp benchmarks.jar ScalingHarness sizes=680x400,1360x800 densities=0.05 threads=1,2,4 scans=20
+ */
+public class ScalingHarness {
+
+	// a scan is localized correctly if the best pose is this close to the true one (in cells and degrees)
+	private static final int POSITION_TOLERANCE = 10;
+	private static final int THETA_TOLERANCE = 10;
+
+	private final String[] sizes;
+	private final double[] densities;
+	private final int[] threads;
+	private final int scans;
+	private final int warmup;
+	private final boolean hierarchical;
+	private final boolean noise;
+	private final int clearance;
+	private final long seed;
+
+	private ScalingHarness(String[] args) {
+		String sizes = "680x400,1360x800";
+		String densities = "0.0,0.1";
+		String threads = "1,2,4";
+		int scans = 10;
+		int warmup = 2;
+		String search = "hierarchical";
+		boolean noise = true;
+		int clearance = 0;
+		long seed = 1;
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Expected name=value, got " + arg);
+			}
+			String name = arg.substring(0, separator);
+			String value = arg.substring(separator + 1);
+			if (name.equals("sizes")) {
+				sizes = value;
+			} else if (name.equals("densities")) {
+				densities = value;
+			} else if (name.equals("threads")) {
+				threads = value;
+			} else if (name.equals("scans")) {
+				scans = Integer.parseInt(value);
+			} else if (name.equals("warmup")) {
+				warmup = Integer.parseInt(value);
+			} else if (name.equals("search")) {
+				search = value;
+			} else if (name.equals("noise")) {
+				noise = Boolean.parseBoolean(value);
+			} else if (name.equals("clearance")) {
+				clearance = Integer.parseInt(value);
+			} else if (name.equals("seed")) {
+				seed = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + name);
+			}
+		}
+		if (scans < 1 || warmup < 0) {
+			throw new IllegalArgumentException("Invalid number of scans");
+		}
+		if (!search.equals("hierarchical") && !search.equals("exhaustive")) {
+			throw new IllegalArgumentException("Unknown search " + search);
+		}
+		this.sizes = sizes.split(",");
+		String[] densityValues = densities.split(",");
+		this.densities = new double[densityValues.length];
+		for (int i = 0; i < densityValues.length; i++) {
+			this.densities[i] = Double.parseDouble(densityValues[i]);
+		}
+		String[] threadValues = threads.split(",");
+		this.threads = new int[threadValues.length];
+		for (int i = 0; i < threadValues.length; i++) {
+			this.threads[i] = Integer.parseInt(threadValues[i]);
+		}
+		this.scans = scans;
+		this.warmup = warmup;
+		this.hierarchical = search.equals("hierarchical");
+		this.noise = noise;
+		this.clearance = clearance;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) {
+		Metrics.setEnabled(true);
+		new ScalingHarness(args).run();
+	}
+
+	/*
+	 * This function runs the workloads for all maps and thread counts.
+	 */
+	private void run() {
+		ModelParameters parameters = new ModelParameters(10, 5, 135, 5, 0.8, 0.4, 0.1);
+		for (String size : sizes) {
+			String[] dimensions = size.split("x");
+			int width = Integer.parseInt(dimensions[0]);
+			int height = Integer.parseInt(dimensions[1]);
+			for (double density : densities) {
+				OccupancyGrid grid = new SyntheticMapGenerator(parameters.getCmPerPixel(), density)
+						.generate(width, height, seed);
+				CandidateIndex candidates = new CandidateIndex(grid, clearance);
+				RobotPosition[] positions = randomPositions(candidates, warmup + scans);
+				double[][] measurements = simulateScans(new ScanSimulator(grid, parameters), positions);
+				for (double[] measurement : measurements) {
+					ScanSimulator.reverse(measurement);
+				}
+				double baseThroughput = 0;
+				for (int t : threads) {
+					Result result = measure(candidates, positions, measurements, t);
+					if (baseThroughput == 0) {
+						baseThroughput = result.throughput;
+					}
+					System.out.println(String.format(Locale.ROOT,
+							"{\"width\":%d,\"height\":%d,\"clutterDensity\":%s,\"obstacleCells\":%d,\"freeCells\":%d,\"candidates\":%d,"
+									+ "\"search\":\"%s\",\"noise\":%b,\"threads\":%d,\"scans\":%d,\"fieldMillis\":%.3f,"
+									+ "\"throughput\":%.4f,\"speedup\":%.3f,\"latencyMillis\":{\"min\":%.3f,\"p50\":%.3f,"
+									+ "\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f},\"localized\":%.3f,\"posesPerScan\":%d,"
+									+ "\"blocksPerScan\":%d,\"peakHeapBytes\":%d}",
+							width, height, density, grid.getObstacleCells().length, grid.getFreeCells().length, candidates.size(),
+							hierarchical ? "hierarchical" : "exhaustive", noise, t, scans, result.fieldMillis,
+							result.throughput, result.throughput / baseThroughput, percentile(result.latencies, 0),
+							percentile(result.latencies, 50), percentile(result.latencies, 90),
+							percentile(result.latencies, 99), percentile(result.latencies, 100), result.localized,
+							result.poses, result.blocks, result.peakHeap));
+					System.out.flush();
+				}
+			}
+		}
+	}
+
+	/*
+	 * This function returns the given number of random poses at candidate cells.
+	 */
+	private RobotPosition[] randomPositions(CandidateIndex candidates, int count) {
+		Random random = new Random(seed);
+		RobotPosition[] positions = new RobotPosition[count];
+		for (int i = 0; i < count; i++) {
+			int candidate = random.nextInt(candidates.size());
+			positions[i] = new RobotPosition(candidates.getX(candidate), candidates.getY(candidate),
+					5 * random.nextInt(72));
+		}
+		return positions;
+	}
+
+	/*
+	 * This function simulates a scan at every position, with or without noise.
+	 */
+	private double[][] simulateScans(ScanSimulator simulator, RobotPosition[] positions) {
+		if (noise) {
+			return simulator.simulateScans(positions, seed, null);
+		}
+		double[][] scans = new double[positions.length][];
+		for (int i = 0; i < positions.length; i++) {
+			scans[i] = simulator.expectedScan(positions[i]);
+		}
+		return scans;
+	}
+
+	/*
+	 * This function localizes the robot in all scans with a new position finder using the given number of threads.
+	 * The first scans only warm up the code and are not measured. The peak heap is measured from the creation
+	 * of the position finder on.
+	 */
+	private Result measure(CandidateIndex candidates, RobotPosition[] positions, double[][] measurements, int threads) {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		Result result = new Result();
+		PositionFinder finder = new PositionFinder(candidates.getGrid(), null);
+		finder.setCandidates(candidates);
+		finder.setParallelism(threads);
+		try {
+			long start = System.nanoTime();
+			finder.getLowestDistanceLikelihoodMap();
+			result.fieldMillis = (System.nanoTime() - start) / 1e6;
+
+			result.latencies = new double[scans];
+			int localized = 0;
+			long total = 0;
+			for (int i = 0; i < positions.length; i++) {
+				if (i == warmup) {
+					Metrics.reset();
+				}
+				start = System.nanoTime();
+				ScoredPosition best = hierarchical ? finder.findBestPoseHierarchical(measurements[i], true)
+						: finder.findBestPose(measurements[i], true);
+				long time = System.nanoTime() - start;
+				if (i < warmup) {
+					continue;
+				}
+				result.latencies[i - warmup] = time / 1e6;
+				total += time;
+				if (best != null && isClose(best.getPosition(), positions[i])) {
+					localized++;
+				}
+			}
+			result.throughput = scans / (total / 1e9);
+			result.localized = (double) localized / scans;
+			result.poses = Metrics.get(Metrics.Counter.POSES) / scans;
+			result.blocks = Metrics.get(Metrics.Counter.BLOCKS) / scans;
+			result.peakHeap = peakHeap();
+		} finally {
+			finder.setParallelism(1);
+		}
+		Arrays.sort(result.latencies);
+		return result;
+	}
+
+	/*
+	 * This function checks whether the pose found by the pose search is close enough to the true one
+	 * (whose orientation is mirrored for the pose search, see ScanSimulator.reverse).
+	 */
+	private static boolean isClose(RobotPosition found, RobotPosition truth) {
+		int theta = Math.abs(found.getTheta() + truth.getTheta()) % 360;
+		return Math.abs(found.getX() - truth.getX()) <= POSITION_TOLERANCE
+				&& Math.abs(found.getY() - truth.getY()) <= POSITION_TOLERANCE
+				&& Math.min(theta, 360 - theta) <= THETA_TOLERANCE;
+	}
+
+	/*
+	 * This function returns the sum of the peak usage of all heap memory pools since they have been reset.
+	 */
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	/*
+	 * This function returns the given percentile of the sorted values (nearest rank).
+	 */
+	private static double percentile(double[] sorted, int percent) {
+		if (sorted.length == 0) {
+			return Double.NaN;
+		}
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	/*
+	 * This class describes the measurements of one map and thread count.
+	 */
+	private static class Result {
+		double fieldMillis;
+		double throughput;
+		double[] latencies;
+		double localized;
+		long poses;
+		long blocks;
+		long peakHeap;
+	}
+}
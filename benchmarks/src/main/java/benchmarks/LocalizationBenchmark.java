@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * This class benchmarks the hot paths of the localization (creation of the likelihood maps,
+ * pose search for one scan, rendering) and of the scan simulation (real measurements, exploring the laser space,
+ * noisy measurements) on random maps of different sizes and obstacle densities and for different numbers of beams.
+ * Single benchmarks can be selected by a regular expression, e.g.
+ * java -jar benchmarks/target/benchmarks.jar "LocalizationBenchmark.generateMap" -p mapSize=680x400
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocalizationBenchmark {
+
+	// the size of the map in pixels (width x height), the size of the assignment map is 680x400
+	@Param({ "340x200", "680x400", "1360x800" })
+	public String mapSize;
+
+	// the fraction of the area of every room covered by clutter (see SyntheticMapGenerator)
+	@Param({ "0.0", "0.1" })
+	public double clutterDensity;
+
+	// the number of beams of a scan, spread over 270 degrees (the pose search is told their angles, see setScanAngles)
+	@Param({ "19", "55" })
+	public int beams;
+
+	private Workloads workloads;
+
+	@Setup
+	public void setUp() throws Exception {
+		String[] size = mapSize.split("x");
+		workloads = Workloads.Loader.load();
+		workloads.setUp(Integer.parseInt(size[0]), Integer.parseInt(size[1]), clutterDensity, beams, 42);
+	}
+
+	@Benchmark
+	public Object generateFields() {
+		return workloads.generateFields();
+	}
+
+	@Benchmark
+	public Object generateMap() {
+		return workloads.generateMap();
+	}
+
+	@Benchmark
+	public Object generatePicture() {
+		return workloads.generatePicture();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object bruteForceRealMeasurement() {
+		return workloads.bruteForceRealMeasurement();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object exploreLaserSpace() {
+		return workloads.exploreLaserSpace();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object generateLaserMeasurements() {
+		return workloads.generateLaserMeasurements();
+	}
+}
@@ -0,0 +1,54 @@
+package benchmarks;
+
+/*
+ * This interface describes the measured operations of the localization and simulation code.
+ * The code lives in the default package, which classes in a package (like the benchmarks, which JMH requires
+ * to be in a package) cannot refer to. So the operations are implemented by a class in the default package
+ * (LocalizationWorkloads) which is loaded by its name once, and called through this interface.
+ */
+public interface Workloads {
+
+	// the name of the implementation in the default package
+	String IMPLEMENTATION = "LocalizationWorkloads";
+
+	/*
+	 * This function creates a synthetic building of the given size (width x height in pixels) and clutter density
+	 * and everything the operations need, for scans of the given number of beams.
+	 */
+	void setUp(int width, int height, double clutterDensity, int beams, long seed) throws Exception;
+
+	// PositionFinder: creation of both likelihood maps
+	Object generateFields();
+
+	// PositionFinder.generateMap for one scan
+	Object generateMap();
+
+	// PositionFinder.generatePicture of a likelihood map
+	Object generatePicture();
+
+	// MeasurementGenerator.getBruteForceRealMeasurement for one pose
+	Object bruteForceRealMeasurement();
+
+	// MeasurementGenerator.exploreLaserSpace for one pose
+	Object exploreLaserSpace();
+
+	// the noisy measurements (generateLaserMeasurement) of one scan
+	Object generateLaserMeasurements();
+
+	/*
+	 * This class loads the implementation of the workloads.
+	 */
+	final class Loader {
+
+		private Loader() {
+		}
+
+		public static Workloads load() {
+			try {
+				return (Workloads) Class.forName(IMPLEMENTATION).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Could not load " + IMPLEMENTATION, e);
+			}
+		}
+	}
+}
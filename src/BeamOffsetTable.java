@@ -0,0 +1,146 @@
+import org.apache.commons.math3.util.FastMath;
+
+/*
+ * This class describes a laser scan rotated into all considered robot orientations.
+ * For every heading and every beam it contains the offset in pixels from the robot position
+ * to the endpoint of the measurement, so that scoring a robot pose only needs table lookups
+ * instead of computing sine, cosine and floor for every beam of every pose.
+ * Since the endpoint is computed from the middle of the robot pixel, the offset is the same
+ * for every robot position, except when the endpoint lies (almost) exactly on the border between two pixels.
+ * Those beams are marked as not exact and their endpoints are computed the original way,
+ * so the endpoints are always the same as the ones computed from scratch.
+ */
+public class BeamOffsetTable {
+
+	// beams whose endpoint lies closer than this to a pixel border (in pixels) are not exact
+	private static final double BORDER_TOLERANCE = 1e-6;
+
+	private final int headings;
+	private final int headingStep;
+	private final int beams;
+	private final double[] distances;
+	// the angle in degrees of every beam for every heading
+	private final int[][] angles;
+	// the endpoint offsets in pixels for every heading and beam
+	private final int[][] offsetX;
+	private final int[][] offsetY;
+	// whether the offsets of a heading and beam are valid for every robot position
+	private final boolean[][] exactX;
+	private final boolean[][] exactY;
+	// whether the measurement of a beam is the maximum measurement
+	private final boolean[] maxMeasurement;
+
+	/*
+	 * This function is the constructor.
+	 * The headings are 0, headingStep, 2*headingStep, ... up to the theta range (exclusive),
+	 * the beam l of a heading k has the angle k + firstBeamAngle + l * beamStep.
+	 */
+	public BeamOffsetTable(double[] measurements, int thetaRange, int headingStep,
+			int firstBeamAngle, int beamStep, double maxMeasurementValue) {
+		this.headings = (thetaRange + headingStep - 1) / headingStep;
+		this.headingStep = headingStep;
+		this.beams = measurements.length;
+		this.distances = measurements.clone();
+		angles = new int[headings][beams];
+		offsetX = new int[headings][beams];
+		offsetY = new int[headings][beams];
+		exactX = new boolean[headings][beams];
+		exactY = new boolean[headings][beams];
+		maxMeasurement = new boolean[beams];
+
+		for (int l = 0; l < beams; l++) {
+			maxMeasurement[l] = distances[l] == maxMeasurementValue;
+		}
+		for (int h = 0; h < headings; h++) {
+			for (int l = 0; l < beams; l++) {
+				int angle = h * headingStep + firstBeamAngle + l * beamStep;
+				double radAngle = FastMath.toRadians(angle);
+				double pixelX = 0.5 + 20 * distances[l] * FastMath.cos(radAngle);
+				double pixelY = 0.5 + 20 * distances[l] * FastMath.sin(radAngle);
+				angles[h][l] = angle;
+				offsetX[h][l] = (int) FastMath.floor(pixelX);
+				offsetY[h][l] = (int) FastMath.floor(pixelY);
+				exactX[h][l] = FastMath.abs(pixelX - FastMath.rint(pixelX)) > BORDER_TOLERANCE;
+				exactY[h][l] = FastMath.abs(pixelY - FastMath.rint(pixelY)) > BORDER_TOLERANCE;
+			}
+		}
+	}
+
+	public int getHeadings() {
+		return headings;
+	}
+
+	public int getBeams() {
+		return beams;
+	}
+
+	/*
+	 * This function returns the robot orientation in degrees of the given heading.
+	 */
+	public int getTheta(int heading) {
+		return heading * headingStep;
+	}
+
+	public boolean isMaxMeasurement(int beam) {
+		return maxMeasurement[beam];
+	}
+
+	/*
+	 * These two functions return the pixel coordinates of the endpoint of a beam
+	 * for a robot in the given position with the given heading.
+	 */
+	public int endpointX(int heading, int beam, int originX) {
+		if (exactX[heading][beam]) {
+			return originX + offsetX[heading][beam];
+		}
+		return findPixelX(originX, angles[heading][beam], distances[beam]);
+	}
+	public int endpointY(int heading, int beam, int originY) {
+		if (exactY[heading][beam]) {
+			return originY + offsetY[heading][beam];
+		}
+		return findPixelY(originY, angles[heading][beam], distances[beam]);
+	}
+
+	/*
+	 * This function checks whether the endpoint offsets of a beam are the same for every robot position.
+	 */
+	public boolean isExact(int heading, int beam) {
+		return exactX[heading][beam] && exactY[heading][beam];
+	}
+
+	/*
+	 * These functions return the smallest and largest offset the endpoint of a beam
+	 * can have from the robot position, whatever the robot position is.
+	 */
+	public int minOffsetX(int heading, int beam) {
+		return exactX[heading][beam] ? offsetX[heading][beam] : offsetX[heading][beam] - 1;
+	}
+	public int maxOffsetX(int heading, int beam) {
+		return exactX[heading][beam] ? offsetX[heading][beam] : offsetX[heading][beam] + 1;
+	}
+	public int minOffsetY(int heading, int beam) {
+		return exactY[heading][beam] ? offsetY[heading][beam] : offsetY[heading][beam] - 1;
+	}
+	public int maxOffsetY(int heading, int beam) {
+		return exactY[heading][beam] ? offsetY[heading][beam] : offsetY[heading][beam] + 1;
+	}
+
+	/*
+	 * These two functions determine the new pixel coordinates of an endpoint
+	 * measurement of a given distance in a given direction (determined by angle).
+	 * It uses common trigonometric relations.
+	 */
+	static int findPixelX(int originX, int angle, double distance){
+		double realOriginX = (originX+0.5)*0.05;
+		double radAngle = FastMath.toRadians(angle);
+		double realX = realOriginX+distance*FastMath.cos(radAngle);
+		return (int) FastMath.floor(20*realX);
+	}
+	static int findPixelY(int originY, int angle, double distance){
+		double realOriginY = (originY+0.5)*0.05;
+		double radAngle = FastMath.toRadians(angle);
+		double realY = realOriginY+distance*FastMath.sin(radAngle);
+		return (int) FastMath.floor(20*realY);
+	}
+}
@@ -0,0 +1,183 @@
+import java.util.BitSet;
+
+/*
+ * This class describes the positions of a map at which the pose search considers the robot,
+ * built once per map and shared by all searches. Only free cells are candidates, and optionally only those
+ * a robot of a given radius fits into (with more than the clearance to the nearest obstacle, taken from the
+ * distance transform) and only those it can reach from a given start cell without coming closer to an obstacle,
+ * which leaves out free space enclosed by obstacles and narrow gaps.
+ * The candidates are packed into a list ordered by x first and by y second (the order of the exhaustive search),
+ * with the start of every column in that list, so a search can go through the candidates of a column
+ * without looking at any other cell. The number of candidates in any rectangle is looked up in a table
+ * of prefix sums, so searches can skip whole blocks of the map without candidates.
+ */
+public class CandidateIndex {
+
+	private final OccupancyGrid grid;
+	private final int width;
+	private final int height;
+	// the x and y coordinates of all candidates, ordered by x first and by y second
+	private final int[] xs;
+	private final int[] ys;
+	// the position in the list of the first candidate of every column, and the number of candidates at the end
+	private final int[] columnStarts;
+	// the candidates in row-major order
+	private final BitSet cells;
+	// the number of candidates in the rectangle from (0, 0) to (x, y) (exclusive) at x * (height + 1) + y
+	private final int[] prefixSums;
+
+	/*
+	 * This function is the constructor for all free cells of the grid.
+	 */
+	public CandidateIndex(OccupancyGrid grid) {
+		this(grid, admissible(grid, 0));
+	}
+
+	/*
+	 * This function is the constructor for all free cells whose distance (in cells) to the nearest obstacle
+	 * is greater than the clearance, e.g. the radius of the robot.
+	 */
+	public CandidateIndex(OccupancyGrid grid, int clearance) {
+		this(grid, admissible(grid, clearance));
+	}
+
+	/*
+	 * This function is the constructor for all free cells whose distance to the nearest obstacle is greater than
+	 * the clearance and which are connected to the given start cell (e.g. the place where the robot was switched on)
+	 * by such cells, horizontally or vertically.
+	 */
+	public CandidateIndex(OccupancyGrid grid, int clearance, int startX, int startY) {
+		this(grid, reachable(grid, admissible(grid, clearance), startX, startY));
+	}
+
+	private CandidateIndex(OccupancyGrid grid, BitSet cells) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+		this.height = grid.getHeight();
+		this.cells = cells;
+		int count = cells.cardinality();
+		xs = new int[count];
+		ys = new int[count];
+		columnStarts = new int[width + 1];
+		prefixSums = new int[(width + 1) * (height + 1)];
+		int n = 0;
+		for (int x = 0; x < width; x++) {
+			columnStarts[x] = n;
+			int columnCount = 0;
+			for (int y = 0; y < height; y++) {
+				if (cells.get(y * width + x)) {
+					xs[n] = x;
+					ys[n] = y;
+					n++;
+					columnCount++;
+				}
+				prefixSums[(x + 1) * (height + 1) + y + 1] = prefixSums[x * (height + 1) + y + 1] + columnCount;
+			}
+		}
+		columnStarts[width] = n;
+	}
+
+	/*
+	 * This function returns the free cells whose squared distance to the nearest obstacle is greater than
+	 * the squared clearance. Without a clearance, the distance transform is not needed.
+	 */
+	private static BitSet admissible(OccupancyGrid grid, int clearance) {
+		if (clearance < 0) {
+			throw new IllegalArgumentException("Invalid clearance " + clearance);
+		}
+		BitSet cells = new BitSet(grid.getWidth() * grid.getHeight());
+		int[] squaredDistances = clearance > 0 ? DistanceTransform.squaredDistances(grid) : null;
+		long minSquaredDistance = (long) clearance * clearance;
+		for (int cell : grid.getFreeCells()) {
+			if (squaredDistances == null || squaredDistances[cell] > minSquaredDistance) {
+				cells.set(cell);
+			}
+		}
+		return cells;
+	}
+
+	/*
+	 * This function returns the admissible cells that can be reached from the start cell
+	 * through admissible cells by a breadth-first search.
+	 */
+	private static BitSet reachable(OccupancyGrid grid, BitSet admissible, int startX, int startY) {
+		if (!grid.contains(startX, startY) || !admissible.get(grid.index(startX, startY))) {
+			throw new IllegalArgumentException("The start cell (" + startX + ", " + startY + ") is not admissible");
+		}
+		int width = grid.getWidth();
+		BitSet reached = new BitSet(width * grid.getHeight());
+		int[] queue = new int[admissible.cardinality()];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = grid.index(startX, startY);
+		reached.set(queue[0]);
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = grid.getX(cell);
+			int y = grid.getY(cell);
+			int[] neighbours = { x > 0 ? cell - 1 : -1, x < width - 1 ? cell + 1 : -1,
+					y > 0 ? cell - width : -1, y < grid.getHeight() - 1 ? cell + width : -1 };
+			for (int neighbour : neighbours) {
+				if (neighbour >= 0 && admissible.get(neighbour) && !reached.get(neighbour)) {
+					reached.set(neighbour);
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		return reached;
+	}
+
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
+	/*
+	 * This function returns the number of candidates.
+	 */
+	public int size() {
+		return xs.length;
+	}
+
+	/*
+	 * These functions return the coordinates of the candidate at the given position of the list.
+	 */
+	public int getX(int position) {
+		return xs[position];
+	}
+	public int getY(int position) {
+		return ys[position];
+	}
+
+	/*
+	 * This function returns the position in the list of the first candidate of the column x.
+	 * The candidates of the column are the ones from there up to the start of the column x + 1 (exclusive),
+	 * ordered by y.
+	 */
+	public int columnStart(int x) {
+		return columnStarts[x];
+	}
+
+	/*
+	 * This function checks whether the given cell is a candidate.
+	 */
+	public boolean contains(int x, int y) {
+		return grid.contains(x, y) && cells.get(y * width + x);
+	}
+
+	/*
+	 * This function returns the number of candidates in the rectangle [left, right) x [top, bottom),
+	 * which may reach beyond the map.
+	 */
+	public int count(int left, int top, int right, int bottom) {
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		right = Math.min(right, width);
+		bottom = Math.min(bottom, height);
+		if (left >= right || top >= bottom) {
+			return 0;
+		}
+		int stride = height + 1;
+		return prefixSums[right * stride + bottom] - prefixSums[left * stride + bottom]
+				- prefixSums[right * stride + top] + prefixSums[left * stride + top];
+	}
+}
@@ -0,0 +1,352 @@
+/*
+ * This class convolves a grid of values of the size of the map with a small kernel,
+ * e.g. it computes for every position (x, y)
+ *   output[x][y] = sum over a, b of input[x + a - cx][y + b - cy] * kernel[a][b]
+ * where (cx, cy) is the middle of the kernel and values outside of the input count as zero.
+ * Three different strategies are available:
+ * DIRECT adds the kernel around every non-zero input value, which is cheap for sparse inputs and small kernels.
+ * SEPARABLE runs two one dimensional passes, which is only possible if the kernel is the product
+ * of a column and a row vector.
+ * FFT multiplies the fourier transforms of the zero padded input and kernel, whose cost
+ * does not depend on the kernel size at all.
+ * If no strategy is given, the one with the lowest estimated cost is chosen.
+ */
+public class Convolution {
+
+	public enum Strategy {
+		DIRECT, SEPARABLE, FFT
+	}
+
+	// the relative tolerance used to decide whether a kernel is separable
+	private static final double SEPARABLE_TOLERANCE = 1e-12;
+	// results of the fourier transform smaller than this (relative to the biggest kernel value)
+	// are considered to be rounding noise and set to exactly zero
+	private static final double FFT_ZERO_TOLERANCE = 1e-9;
+	// the estimated number of operations per value and level of one complex fourier transform
+	private static final double FFT_COST_FACTOR = 6.0;
+
+	/*
+	 * This function convolves the input with the kernel using the cheapest strategy.
+	 */
+	public static double[][] convolve(double[][] input, double[][] kernel) {
+		return convolve(input, kernel, chooseStrategy(input, kernel));
+	}
+
+	/*
+	 * This function convolves the input with the kernel using the given strategy.
+	 * If the separable strategy is requested for a kernel that is not separable,
+	 * an IllegalArgumentException is thrown.
+	 */
+	public static double[][] convolve(double[][] input, double[][] kernel, Strategy strategy) {
+		switch (strategy) {
+		case SEPARABLE:
+			double[][] factors = separate(kernel);
+			if (factors == null) {
+				throw new IllegalArgumentException("The kernel is not separable");
+			}
+			return convolveSeparable(input, factors[0], factors[1]);
+		case FFT:
+			return convolveFFT(input, kernel);
+		default:
+			return convolveDirect(input, kernel);
+		}
+	}
+
+	/*
+	 * This function estimates the number of operations of every strategy
+	 * and returns the one with the lowest estimate.
+	 */
+	public static Strategy chooseStrategy(double[][] input, double[][] kernel) {
+		int width = input.length;
+		int height = input[0].length;
+		int kernelWidth = kernel.length;
+		int kernelHeight = kernel[0].length;
+
+		int nonZero = 0;
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				if (input[i][j] != 0) {
+					nonZero++;
+				}
+			}
+		}
+		double directCost = (double) nonZero * kernelWidth * kernelHeight;
+
+		double separableCost = Double.MAX_VALUE;
+		if (separate(kernel) != null) {
+			separableCost = (double) width * height * (kernelWidth + kernelHeight);
+		}
+
+		int paddedWidth = nextPowerOfTwo(width + kernelWidth - 1);
+		int paddedHeight = nextPowerOfTwo(height + kernelHeight - 1);
+		double size = (double) paddedWidth * paddedHeight;
+		// two forward transforms and one inverse transform
+		double fftCost = 3 * FFT_COST_FACTOR * size * (Math.log(size) / Math.log(2));
+
+		if (separableCost <= directCost && separableCost <= fftCost) {
+			return Strategy.SEPARABLE;
+		}
+		if (fftCost < directCost) {
+			return Strategy.FFT;
+		}
+		return Strategy.DIRECT;
+	}
+
+	/*
+	 * This function adds the weighted kernel around every non-zero input value.
+	 * The values are added in the order of the input (x first, y second),
+	 * so the result is exactly the same as adding the kernel around every obstacle by hand.
+	 */
+	private static double[][] convolveDirect(double[][] input, double[][] kernel) {
+		int width = input.length;
+		int height = input[0].length;
+		int cx = kernel.length / 2;
+		int cy = kernel[0].length / 2;
+
+		double[][] output = new double[width][height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				double value = input[i][j];
+				if (value == 0) {
+					continue;
+				}
+				int minK = Math.max(0, i - kernel.length + 1 + cx);
+				int maxK = Math.min(width - 1, i + cx);
+				int minL = Math.max(0, j - kernel[0].length + 1 + cy);
+				int maxL = Math.min(height - 1, j + cy);
+				for (int k = minK; k <= maxK; k++) {
+					double[] kernelColumn = kernel[i - k + cx];
+					double[] outputColumn = output[k];
+					for (int l = minL; l <= maxL; l++) {
+						outputColumn[l] += value * kernelColumn[j - l + cy];
+					}
+				}
+			}
+		}
+		return output;
+	}
+
+	/*
+	 * This function runs the two one dimensional passes of a separable kernel,
+	 * first along x with the column vector, then along y with the row vector.
+	 */
+	private static double[][] convolveSeparable(double[][] input, double[] column, double[] row) {
+		int width = input.length;
+		int height = input[0].length;
+		int cx = column.length / 2;
+		int cy = row.length / 2;
+
+		double[][] intermediate = new double[width][height];
+		for (int x = 0; x < width; x++) {
+			for (int a = 0; a < column.length; a++) {
+				int source = x + a - cx;
+				if (source < 0 || source >= width || column[a] == 0) {
+					continue;
+				}
+				double[] sourceColumn = input[source];
+				double[] intermediateColumn = intermediate[x];
+				for (int y = 0; y < height; y++) {
+					intermediateColumn[y] += sourceColumn[y] * column[a];
+				}
+			}
+		}
+
+		double[][] output = new double[width][height];
+		for (int x = 0; x < width; x++) {
+			double[] intermediateColumn = intermediate[x];
+			double[] outputColumn = output[x];
+			for (int y = 0; y < height; y++) {
+				double sum = 0.0;
+				for (int b = 0; b < row.length; b++) {
+					int source = y + b - cy;
+					if (source >= 0 && source < height) {
+						sum += intermediateColumn[source] * row[b];
+					}
+				}
+				outputColumn[y] = sum;
+			}
+		}
+		return output;
+	}
+
+	/*
+	 * This function convolves by multiplying the fourier transforms of the input and the kernel.
+	 * Both are zero padded to a power of two that is large enough to avoid any wrap around.
+	 * The kernel is mirrored and shifted, so that the product corresponds to the
+	 * definition of the convolution in the description of this class.
+	 */
+	private static double[][] convolveFFT(double[][] input, double[][] kernel) {
+		int width = input.length;
+		int height = input[0].length;
+		int kernelWidth = kernel.length;
+		int kernelHeight = kernel[0].length;
+		int cx = kernelWidth / 2;
+		int cy = kernelHeight / 2;
+		int paddedWidth = nextPowerOfTwo(width + kernelWidth - 1);
+		int paddedHeight = nextPowerOfTwo(height + kernelHeight - 1);
+
+		double[][] inputReal = new double[paddedWidth][paddedHeight];
+		double[][] inputImaginary = new double[paddedWidth][paddedHeight];
+		for (int i = 0; i < width; i++) {
+			System.arraycopy(input[i], 0, inputReal[i], 0, height);
+		}
+		double[][] kernelReal = new double[paddedWidth][paddedHeight];
+		double[][] kernelImaginary = new double[paddedWidth][paddedHeight];
+		double maxKernel = 0.0;
+		for (int a = 0; a < kernelWidth; a++) {
+			for (int b = 0; b < kernelHeight; b++) {
+				kernelReal[kernelWidth - 1 - a][kernelHeight - 1 - b] = kernel[a][b];
+				maxKernel = Math.max(maxKernel, Math.abs(kernel[a][b]));
+			}
+		}
+
+		transform2D(inputReal, inputImaginary, false);
+		transform2D(kernelReal, kernelImaginary, false);
+		for (int i = 0; i < paddedWidth; i++) {
+			for (int j = 0; j < paddedHeight; j++) {
+				double real = inputReal[i][j] * kernelReal[i][j]
+						- inputImaginary[i][j] * kernelImaginary[i][j];
+				double imaginary = inputReal[i][j] * kernelImaginary[i][j]
+						+ inputImaginary[i][j] * kernelReal[i][j];
+				inputReal[i][j] = real;
+				inputImaginary[i][j] = imaginary;
+			}
+		}
+		transform2D(inputReal, inputImaginary, true);
+
+		double tolerance = FFT_ZERO_TOLERANCE * maxKernel;
+		int shiftX = kernelWidth - 1 - cx;
+		int shiftY = kernelHeight - 1 - cy;
+		double[][] output = new double[width][height];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				double value = inputReal[x + shiftX][y + shiftY];
+				output[x][y] = Math.abs(value) < tolerance ? 0.0 : value;
+			}
+		}
+		return output;
+	}
+
+	/*
+	 * This function runs the fourier transform over every column and then over every row
+	 * of a grid of complex values. The inverse transform includes the division by the size.
+	 */
+	private static void transform2D(double[][] real, double[][] imaginary, boolean inverse) {
+		int width = real.length;
+		int height = real[0].length;
+		for (int i = 0; i < width; i++) {
+			transform(real[i], imaginary[i], inverse);
+		}
+		double[] rowReal = new double[width];
+		double[] rowImaginary = new double[width];
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				rowReal[i] = real[i][j];
+				rowImaginary[i] = imaginary[i][j];
+			}
+			transform(rowReal, rowImaginary, inverse);
+			for (int i = 0; i < width; i++) {
+				real[i][j] = rowReal[i];
+				imaginary[i][j] = rowImaginary[i];
+			}
+		}
+	}
+
+	/*
+	 * This function computes the in-place iterative radix-2 fourier transform
+	 * of a complex vector whose length is a power of two.
+	 */
+	private static void transform(double[] real, double[] imaginary, boolean inverse) {
+		int n = real.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				double temp = real[i];
+				real[i] = real[j];
+				real[j] = temp;
+				temp = imaginary[i];
+				imaginary[i] = imaginary[j];
+				imaginary[j] = temp;
+			}
+		}
+		for (int length = 2; length <= n; length <<= 1) {
+			double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+			double stepReal = Math.cos(angle);
+			double stepImaginary = Math.sin(angle);
+			for (int start = 0; start < n; start += length) {
+				double wReal = 1.0;
+				double wImaginary = 0.0;
+				for (int k = 0; k < length / 2; k++) {
+					int even = start + k;
+					int odd = even + length / 2;
+					double oddReal = real[odd] * wReal - imaginary[odd] * wImaginary;
+					double oddImaginary = real[odd] * wImaginary + imaginary[odd] * wReal;
+					real[odd] = real[even] - oddReal;
+					imaginary[odd] = imaginary[even] - oddImaginary;
+					real[even] += oddReal;
+					imaginary[even] += oddImaginary;
+					double nextReal = wReal * stepReal - wImaginary * stepImaginary;
+					wImaginary = wReal * stepImaginary + wImaginary * stepReal;
+					wReal = nextReal;
+				}
+			}
+		}
+		if (inverse) {
+			for (int i = 0; i < n; i++) {
+				real[i] /= n;
+				imaginary[i] /= n;
+			}
+		}
+	}
+
+	/*
+	 * This function checks whether the kernel is the product of a column and a row vector.
+	 * If so, it returns both vectors, otherwise null.
+	 */
+	private static double[][] separate(double[][] kernel) {
+		int pivotA = 0;
+		int pivotB = 0;
+		for (int a = 0; a < kernel.length; a++) {
+			for (int b = 0; b < kernel[a].length; b++) {
+				if (Math.abs(kernel[a][b]) > Math.abs(kernel[pivotA][pivotB])) {
+					pivotA = a;
+					pivotB = b;
+				}
+			}
+		}
+		double pivot = kernel[pivotA][pivotB];
+		if (pivot == 0) {
+			return null;
+		}
+
+		double[] column = new double[kernel.length];
+		double[] row = new double[kernel[0].length];
+		for (int a = 0; a < kernel.length; a++) {
+			column[a] = kernel[a][pivotB];
+		}
+		for (int b = 0; b < row.length; b++) {
+			row[b] = kernel[pivotA][b] / pivot;
+		}
+		double tolerance = SEPARABLE_TOLERANCE * Math.abs(pivot);
+		for (int a = 0; a < kernel.length; a++) {
+			for (int b = 0; b < row.length; b++) {
+				if (Math.abs(kernel[a][b] - column[a] * row[b]) > tolerance) {
+					return null;
+				}
+			}
+		}
+		return new double[][] { column, row };
+	}
+
+	private static int nextPowerOfTwo(int n) {
+		int power = 1;
+		while (power < n) {
+			power <<= 1;
+		}
+		return power;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This class computes the exact euclidean distance transform of an occupancy grid,
+ * e.g. for every cell the squared distance in cells to the nearest obstacle cell.
+ * It uses the two-pass separable lower envelope algorithm of Felzenszwalb and Huttenlocher:
+ * First a one dimensional transform is run along every column of the grid,
+ * then a second one along every row on the results of the first pass.
+ * Each one dimensional transform computes the lower envelope of the parabolas rooted
+ * at every cell, so the whole transform takes linear time in the number of cells,
+ * independent of any calculation range.
+ */
+public class DistanceTransform {
+
+	// the squared distance of cells which do not have any obstacle in the map
+	public static final int NO_OBSTACLE = Integer.MAX_VALUE;
+	// the value used for infinity during the computation of the lower envelope
+	private static final double INFINITY = 1e20;
+
+	/*
+	 * This function returns the squared distances in cells from every cell
+	 * to its nearest obstacle cell in row-major order (index = y * width + x).
+	 * Obstacle cells have the distance 0. If the map does not contain any obstacle,
+	 * all cells get the value NO_OBSTACLE.
+	 */
+	public static int[] squaredDistances(OccupancyGrid grid) {
+		return squaredDistances(grid, 0, 0, grid.getWidth(), grid.getHeight());
+	}
+
+	/*
+	 * This function returns the squared distances in cells from every cell of the window
+	 * with the upper left corner (left, top) and the given size to its nearest obstacle cell within the window,
+	 * in row-major order of the window (index = (y - top) * width + (x - left)).
+	 * Obstacles outside of the window are not considered, so the distances are only exact
+	 * for cells whose nearest obstacle lies within the window.
+	 */
+	public static int[] squaredDistances(OccupancyGrid grid, int left, int top, int width, int height) {
+		int length = Math.max(width, height);
+
+		double[] columnDistances = new double[width * height];
+		double[] f = new double[length];
+		double[] d = new double[length];
+		int[] v = new int[length];
+		double[] z = new double[length + 1];
+
+		// transform along every column
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				f[y] = grid.getState(grid.index(left + x, top + y)) == OccupancyGrid.OCCUPIED ? 0 : INFINITY;
+			}
+			lowerEnvelope(f, height, d, v, z);
+			for (int y = 0; y < height; y++) {
+				columnDistances[y * width + x] = d[y];
+			}
+		}
+
+		// transform along every row
+		int[] squaredDistances = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			System.arraycopy(columnDistances, y * width, f, 0, width);
+			lowerEnvelope(f, width, d, v, z);
+			for (int x = 0; x < width; x++) {
+				squaredDistances[y * width + x] = d[x] >= INFINITY ? NO_OBSTACLE : (int) d[x];
+			}
+		}
+		return squaredDistances;
+	}
+
+	/*
+	 * This function computes the one dimensional squared distance transform
+	 * d(q) = min over p of ((q-p)^2 + f(p)) for the first n values of f.
+	 * v holds the roots of the parabolas which form the lower envelope
+	 * and z the boundaries between them.
+	 */
+	private static void lowerEnvelope(double[] f, int n, double[] d, int[] v, double[] z) {
+		int k = 0;
+		v[0] = 0;
+		z[0] = -INFINITY;
+		z[1] = INFINITY;
+		for (int q = 1; q < n; q++) {
+			double s = intersection(f, q, v[k]);
+			while (s <= z[k]) {
+				k--;
+				s = intersection(f, q, v[k]);
+			}
+			k++;
+			v[k] = q;
+			z[k] = s;
+			z[k + 1] = INFINITY;
+		}
+		k = 0;
+		for (int q = 0; q < n; q++) {
+			while (z[k + 1] < q) {
+				k++;
+			}
+			d[q] = (q - v[k]) * (double) (q - v[k]) + f[v[k]];
+		}
+	}
+
+	/*
+	 * This function returns the position where the parabola rooted at q
+	 * intersects the parabola rooted at p.
+	 */
+	private static double intersection(double[] f, int q, int p) {
+		return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+	}
+}
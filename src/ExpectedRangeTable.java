@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * This class describes a precomputed table of the expected range of a beam for every free cell of the map
+ * and every one of a number of equally spaced directions, so an expected measurement is a single lookup
+ * instead of a raycast. The beams start in the center of the cell (see Raycaster).
+ * The ranges are stored compactly as unsigned 16 bit values in centimeters, the maximum range of the laser is stored
+ * for beams without an obstacle. The table is built in parallel and can be stored in a file and loaded from there
+ * through a read-only memory mapping, so it only has to be computed once per map.
+ * The file consists of a header (magic number, width, height, number of directions, number of free cells)
+ * followed by the ranges cell by cell (in the order of the free cells of the occupancy grid) and direction by direction,
+ * in native byte order.
+ */
+public class ExpectedRangeTable {
+
+	// identifies the file format, it has to be changed whenever the format or the computation of the table changes
+	private static final int MAGIC = 0x45525401;
+	private static final int HEADER_SIZE = 5 * 4;
+	// the number of free cells every task of the parallel construction computes at least
+	private static final int CELLS_PER_TASK = 256;
+
+	private final OccupancyGrid grid;
+	private final int directions;
+	// the row of every cell of the map in the table, or -1 for cells that are not free
+	private final int[] rows;
+	private final CharBuffer ranges;
+
+	private ExpectedRangeTable(OccupancyGrid grid, int directions, CharBuffer ranges) {
+		this.grid = grid;
+		this.directions = directions;
+		this.ranges = ranges;
+		this.rows = new int[grid.getWidth() * grid.getHeight()];
+		Arrays.fill(rows, -1);
+		int[] freeCells = grid.getFreeCells();
+		for (int i = 0; i < freeCells.length; i++) {
+			rows[freeCells[i]] = i;
+		}
+	}
+
+	/*
+	 * This function computes the table for all free cells of the grid and the given number of directions
+	 * with the given raycaster. If a pool is given, the free cells are split into tasks run in that pool,
+	 * otherwise the table is computed on the calling thread.
+	 */
+	public static ExpectedRangeTable build(final OccupancyGrid grid, final Raycaster raycaster, final int directions,
+			final double maxRange, ForkJoinPool pool) {
+		if (directions < 1 || directions > 360 * 100) {
+			throw new IllegalArgumentException("Invalid number of directions " + directions);
+		}
+		if (maxRange * 100 > Character.MAX_VALUE) {
+			throw new IllegalArgumentException("The range " + maxRange + " cannot be stored in centimeters");
+		}
+		final int[] freeCells = grid.getFreeCells();
+		final char[] ranges = new char[freeCells.length * directions];
+		CellWork work = new CellWork() {
+			public void computeCells(int from, int to) {
+				for (int i = from; i < to; i++) {
+					int x = grid.getX(freeCells[i]);
+					int y = grid.getY(freeCells[i]);
+					for (int d = 0; d < directions; d++) {
+						double range = raycaster.castRay(x, y, 360.0 * d / directions, maxRange);
+						ranges[i * directions + d] = (char) Math.round(range * 100);
+					}
+				}
+			}
+		};
+		if (pool == null) {
+			work.computeCells(0, freeCells.length);
+		} else {
+			pool.invoke(new CellTask(work, 0, freeCells.length));
+		}
+		return new ExpectedRangeTable(grid, directions, CharBuffer.wrap(ranges));
+	}
+
+	/*
+	 * This function loads the table of the given grid from the file through a memory mapping.
+	 * If the file does not exist or does not belong to the grid, null is returned.
+	 */
+	public static ExpectedRangeTable load(File file, OccupancyGrid grid) throws IOException {
+		if (!file.isFile()) {
+			return null;
+		}
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.nativeOrder());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != grid.getWidth() || buffer.getInt() != grid.getHeight()) {
+				return null;
+			}
+			int directions = buffer.getInt();
+			int freeCells = buffer.getInt();
+			if (directions < 1 || freeCells != grid.getFreeCells().length
+					|| channel.size() != HEADER_SIZE + 2L * freeCells * directions) {
+				return null;
+			}
+			return new ExpectedRangeTable(grid, directions, buffer.asCharBuffer());
+		} finally {
+			input.close();
+		}
+	}
+
+	/*
+	 * This function stores the table in the given file.
+	 * The file is written to a temporary file first and then renamed, so a reader never sees a half written file.
+	 */
+	public void store(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the directory " + directory);
+		}
+		File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+		RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = output.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			header.putInt(MAGIC).putInt(grid.getWidth()).putInt(grid.getHeight())
+					.putInt(directions).putInt(grid.getFreeCells().length).flip();
+			channel.write(header);
+			ByteBuffer row = ByteBuffer.allocate(2 * directions).order(ByteOrder.nativeOrder());
+			for (int i = 0; i < grid.getFreeCells().length; i++) {
+				row.clear();
+				for (int d = 0; d < directions; d++) {
+					row.putChar(ranges.get(i * directions + d));
+				}
+				row.flip();
+				while (row.hasRemaining()) {
+					channel.write(row);
+				}
+			}
+		} finally {
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public int getDirections() {
+		return directions;
+	}
+
+	/*
+	 * This function checks whether the table contains the ranges of the given cell, which is the case for free cells.
+	 */
+	public boolean contains(int x, int y) {
+		return grid.contains(x, y) && rows[grid.index(x, y)] >= 0;
+	}
+
+	/*
+	 * This function returns the expected range in meters of a beam from the center of the given free cell
+	 * in the direction (in degrees, in the orientation of the map picture) closest to the given angle.
+	 */
+	public double getRange(int x, int y, double angle) {
+		int row = rows[grid.index(x, y)];
+		if (row < 0) {
+			throw new IllegalArgumentException("The cell (" + x + ", " + y + ") is not free");
+		}
+		return ranges.get(row * directions + direction(angle)) * 0.01;
+	}
+
+	/*
+	 * This function returns the expected ranges in meters of all beams of a scan from the center of the given free cell
+	 * with the robot orientation theta, the first beam at firstBeamAngle and the beams beamStep degrees apart.
+	 */
+	public double[] getExpectedScan(int x, int y, double theta, double firstBeamAngle, double beamStep, int beams) {
+		int row = rows[grid.index(x, y)];
+		if (row < 0) {
+			throw new IllegalArgumentException("The cell (" + x + ", " + y + ") is not free");
+		}
+		double[] scan = new double[beams];
+		for (int l = 0; l < beams; l++) {
+			scan[l] = ranges.get(row * directions + direction(theta + firstBeamAngle + l * beamStep)) * 0.01;
+		}
+		return scan;
+	}
+
+	/*
+	 * This function returns the index of the direction closest to the given angle in degrees.
+	 */
+	private int direction(double angle) {
+		int direction = (int) Math.round(angle * directions / 360.0) % directions;
+		return direction < 0 ? direction + directions : direction;
+	}
+
+	/*
+	 * This interface describes the computation of the table for a range of free cells.
+	 */
+	private interface CellWork {
+		void computeCells(int from, int to);
+	}
+
+	/*
+	 * This class describes a task computing the table for a range of free cells, which is split
+	 * in halves until the ranges are small enough.
+	 */
+	private static class CellTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final CellWork work;
+		private final int from;
+		private final int to;
+
+		CellTask(CellWork work, int from, int to) {
+			this.work = work;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= CELLS_PER_TASK) {
+				work.computeCells(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new CellTask(work, from, middle), new CellTask(work, middle, to));
+		}
+	}
+}
@@ -0,0 +1,154 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/*
+ * This class describes a persistent cache of computed likelihood maps on disk, so a map only has to be computed
+ * once for all runs and processes that use the same occupancy grid and parameters.
+ * Every likelihood map is stored in its own binary file, whose name contains a hash of the occupancy grid
+ * and of the parameters the map has been computed with, so a changed map or changed parameters never
+ * pick up an old file. A file is read column by column into a new grid on the heap, which the pose search
+ * indexes directly, so every process that loads a map keeps its own copy of it in memory.
+ * The file consists of a header (magic number, width, height) followed by the likelihoods
+ * column by column (x first, y second) as doubles in native byte order.
+ * Files are written to a temporary file first and then renamed, so a reader never sees a half written file.
+ */
+public class LikelihoodMapCache {
+
+	// identifies the file format, it has to be changed whenever the format or the computation of the maps changes
+	private static final int MAGIC = 0x4c4d4301;
+	private static final int HEADER_SIZE = 3 * 4;
+
+	private final File directory;
+
+	public LikelihoodMapCache(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/*
+	 * This function returns the file the likelihood map with the given name is stored in
+	 * for the given occupancy grid and parameters.
+	 */
+	public File cacheFile(String name, OccupancyGrid grid, double standardDeviation, double calculationRange) {
+		return new File(directory, name + "-" + key(grid, standardDeviation, calculationRange) + ".bin");
+	}
+
+	/*
+	 * This function loads the likelihood map with the given name from the cache into a new grid on the heap.
+	 * If the map has not been stored for this occupancy grid and these parameters before, null is returned.
+	 */
+	public double[][] load(String name, OccupancyGrid grid, double standardDeviation, double calculationRange)
+			throws IOException {
+		File file = cacheFile(name, grid, standardDeviation, calculationRange);
+		if (!file.isFile()) {
+			return null;
+		}
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = input.getChannel();
+			if (channel.size() != HEADER_SIZE + 8L * width * height) {
+				return null;
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			read(channel, header);
+			if (header.getInt() != MAGIC || header.getInt() != width || header.getInt() != height) {
+				return null;
+			}
+			double[][] map = new double[width][height];
+			ByteBuffer column = ByteBuffer.allocate(8 * height).order(ByteOrder.nativeOrder());
+			for (int x = 0; x < width; x++) {
+				read(channel, column);
+				column.asDoubleBuffer().get(map[x]);
+			}
+			return map;
+		} finally {
+			input.close();
+		}
+	}
+
+	/*
+	 * This function fills the buffer from the current position of the channel and prepares it for reading.
+	 */
+	private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of the cache file");
+			}
+		}
+		buffer.flip();
+	}
+
+	/*
+	 * This function stores the likelihood map with the given name in the cache.
+	 */
+	public void store(String name, OccupancyGrid grid, double standardDeviation, double calculationRange,
+			double[][] map) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create the cache directory " + directory);
+		}
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		File file = cacheFile(name, grid, standardDeviation, calculationRange);
+		File temporary = File.createTempFile(name, ".tmp", directory);
+		RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+		try {
+			FileChannel channel = output.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+			header.putInt(MAGIC).putInt(width).putInt(height).flip();
+			channel.write(header);
+			ByteBuffer column = ByteBuffer.allocate(8 * height).order(ByteOrder.nativeOrder());
+			for (int x = 0; x < width; x++) {
+				column.clear();
+				column.asDoubleBuffer().put(map[x]);
+				while (column.hasRemaining()) {
+					channel.write(column);
+				}
+			}
+		} finally {
+			output.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	 * This function returns the hexadecimal SHA-256 hash of the occupancy grid and the parameters.
+	 */
+	private static String key(OccupancyGrid grid, double standardDeviation, double calculationRange) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer parameters = ByteBuffer.allocate(4 + 4 + 4 + 8 + 8);
+		parameters.putInt(MAGIC).putInt(grid.getWidth()).putInt(grid.getHeight())
+				.putDouble(standardDeviation).putDouble(calculationRange);
+		digest.update(parameters.array());
+		byte[] cells = new byte[grid.getWidth() * grid.getHeight()];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = grid.getState(i);
+		}
+		digest.update(cells);
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(String.format("%02x", b & 0xff));
+		}
+		return key.toString();
+	}
+}
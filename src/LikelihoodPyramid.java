@@ -0,0 +1,104 @@
+/*
+ * This class describes a max-pooled pyramid of a likelihood map.
+ * Level 0 is the likelihood map itself, every level h contains for each position (x, y)
+ * the maximum likelihood of the square from (x, y) to (x + 2^h - 1, y + 2^h - 1).
+ * All levels have the full resolution of the map, so the maximum of any rectangle can be looked up
+ * by covering it with a few (overlapping) squares of the largest level that fits into it.
+ * Positions outside of the map and zero probabilities count as the empty value,
+ * which is the value the pose search uses for them.
+ */
+public class LikelihoodPyramid {
+
+	private final int width;
+	private final int height;
+	private final double emptyValue;
+	// the pooled maps of all levels
+	private final double[][][] levels;
+
+	/*
+	 * This function is the constructor.
+	 * It pools the likelihood map level by level: the square of level h at (x, y) consists of the four
+	 * squares of level h-1 at (x, y), (x + s, y), (x, y + s) and (x + s, y + s) with s = 2^(h-1).
+	 */
+	public LikelihoodPyramid(double[][] likelihoods, int levelCount, double emptyValue) {
+		this.width = likelihoods.length;
+		this.height = likelihoods[0].length;
+		this.emptyValue = emptyValue;
+		levels = new double[levelCount][][];
+
+		levels[0] = new double[width][height];
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				levels[0][x][y] = likelihoods[x][y] == 0 ? emptyValue : likelihoods[x][y];
+			}
+		}
+		for (int h = 1; h < levelCount; h++) {
+			int s = 1 << (h - 1);
+			double[][] previous = levels[h - 1];
+			double[][] level = new double[width][height];
+			for (int x = 0; x < width; x++) {
+				for (int y = 0; y < height; y++) {
+					double max = previous[x][y];
+					if (x + s < width) {
+						max = Math.max(max, previous[x + s][y]);
+						if (y + s < height) {
+							max = Math.max(max, previous[x + s][y + s]);
+						}
+					}
+					if (y + s < height) {
+						max = Math.max(max, previous[x][y + s]);
+					}
+					level[x][y] = max;
+				}
+			}
+			levels[h] = level;
+		}
+	}
+
+	public int getLevelCount() {
+		return levels.length;
+	}
+
+	/*
+	 * This function returns the maximum likelihood within the rectangle from (minX, minY)
+	 * to (maxX, maxY) (both inclusive). If the rectangle is not completely inside the map,
+	 * the empty value is part of the maximum as well.
+	 */
+	public double max(int minX, int minY, int maxX, int maxY) {
+		double max = Double.NEGATIVE_INFINITY;
+		if (minX < 0 || minY < 0 || maxX >= width || maxY >= height) {
+			max = emptyValue;
+			minX = Math.max(minX, 0);
+			minY = Math.max(minY, 0);
+			maxX = Math.min(maxX, width - 1);
+			maxY = Math.min(maxY, height - 1);
+			if (minX > maxX || minY > maxY) {
+				return max;
+			}
+		}
+
+		int h = 0;
+		int size = Math.min(maxX - minX, maxY - minY) + 1;
+		while (h + 1 < levels.length && (2 << h) <= size) {
+			h++;
+		}
+		int s = 1 << h;
+		double[][] level = levels[h];
+		for (int x = minX;; x += s) {
+			int squareX = Math.min(x, maxX - s + 1);
+			for (int y = minY;; y += s) {
+				int squareY = Math.min(y, maxY - s + 1);
+				if (level[squareX][squareY] > max) {
+					max = level[squareX][squareY];
+				}
+				if (squareY + s > maxY) {
+					break;
+				}
+			}
+			if (squareX + s > maxX) {
+				break;
+			}
+		}
+		return max;
+	}
+}
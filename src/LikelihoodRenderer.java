@@ -0,0 +1,128 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * This class renders likelihoods into greyscale pictures, white for 0.0 and black for 1.0.
+ * Instead of setting every pixel through the colour model of the picture, which converts every colour
+ * from sRGB into the linear grey of the picture, the grey values are written directly into the bytes of the picture.
+ * The conversion of the colour model is done once for all 256 grey values in advance, so the pictures
+ * are exactly the same as the ones drawn pixel by pixel.
+ * The likelihoods are read through a LikelihoodSource, so they can be rendered from any storage
+ * (e.g. the tiles of a TiledLikelihoodMap) without copying them into an array first.
+ */
+public class LikelihoodRenderer {
+
+	// the number of rows every task renders at least
+	private static final int ROWS_PER_TASK = 16;
+	// the byte of the picture for every grey value
+	private static final byte[] GREY_BYTES = greyBytes();
+
+	/*
+	 * This interface describes a likelihood map that can be rendered.
+	 */
+	public interface LikelihoodSource {
+		double getLikelihood(int x, int y);
+	}
+
+	/*
+	 * This function returns a likelihood source reading from a probability grid (x first, y second).
+	 */
+	public static LikelihoodSource fromArray(final double[][] probabilities) {
+		return new LikelihoodSource() {
+			public double getLikelihood(int x, int y) {
+				return probabilities[x][y];
+			}
+		};
+	}
+
+	/*
+	 * This function renders the likelihoods of the given size into a new greyscale picture.
+	 * If a pool is given, the rows are split into tasks run in that pool,
+	 * otherwise the picture is rendered on the calling thread.
+	 */
+	public static BufferedImage render(final int width, int height, final LikelihoodSource source, ForkJoinPool pool) {
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.RENDER);
+		BufferedImage picture = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		final byte[] pixels = ((DataBufferByte) picture.getRaster().getDataBuffer()).getData();
+		RowWork work = new RowWork() {
+			public void renderRows(int from, int to) {
+				for (int y = from; y < to; y++) {
+					int row = y * width;
+					for (int x = 0; x < width; x++) {
+						pixels[row + x] = GREY_BYTES[grey(source.getLikelihood(x, y))];
+					}
+				}
+			}
+		};
+		if (pool == null) {
+			work.renderRows(0, height);
+		} else {
+			pool.invoke(new RowTask(work, 0, height));
+		}
+		timer.stop((long) width * height);
+		return picture;
+	}
+
+	/*
+	 * This function returns the grey value (0 to 255) of a likelihood,
+	 * rounded the way java.awt.Color rounds float components.
+	 */
+	private static int grey(double likelihood) {
+		float rgbFloat = 1 - (float) likelihood;
+		int grey = (int) (rgbFloat * 255 + 0.5);
+		return Math.max(0, Math.min(255, grey));
+	}
+
+	/*
+	 * This function determines the byte a greyscale picture stores for every grey value,
+	 * by letting its colour model convert the colour of every grey value once.
+	 */
+	private static byte[] greyBytes() {
+		BufferedImage pixel = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+		byte[] bytes = new byte[256];
+		for (int grey = 0; grey < 256; grey++) {
+			pixel.setRGB(0, 0, new Color(grey, grey, grey).getRGB());
+			bytes[grey] = (byte) pixel.getRaster().getSample(0, 0, 0);
+		}
+		return bytes;
+	}
+
+	/*
+	 * This interface describes the rendering of a range of rows.
+	 */
+	private interface RowWork {
+		void renderRows(int from, int to);
+	}
+
+	/*
+	 * This class describes a task rendering a range of rows, which is split
+	 * in halves until the ranges are small enough.
+	 */
+	private static class RowTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final RowWork work;
+		private final int from;
+		private final int to;
+
+		RowTask(RowWork work, int from, int to) {
+			this.work = work;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= ROWS_PER_TASK) {
+				work.renderRows(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new RowTask(work, from, middle), new RowTask(work, middle, to));
+		}
+	}
+}
@@ -0,0 +1,60 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/*
+ * This class contains the JFR events of the localization, so a flight recording shows
+ * when the likelihood maps are created, poses are searched and pictures are rendered, and how much work that was.
+ * It is only used through Metrics, which makes sure that the JVM supports JFR before this class is loaded.
+ * The events are disabled unless a recording enables them, e.g. with
+ *   java -XX:StartFlightRecording:filename=localization.jfr,+localization.Phase#enabled=true ...
+ * Nothing is created while the flight recorder is not running, since the first event would initialise JFR,
+ * which takes a considerable time; a disabled event is never begun.
+ */
+final class LocalizationEvents {
+
+	private LocalizationEvents() {
+	}
+
+	@Name("localization.Phase")
+	@Label("Localization Phase")
+	@Category("Localization")
+	@Description("A phase of the localization: creating a likelihood map, searching poses or rendering a picture")
+	static final class PhaseEvent extends Event {
+
+		@Label("Phase")
+		String phase;
+
+		@Label("Work")
+		@Description("The number of cells, poses or pixels the phase has processed")
+		long work;
+	}
+
+	/*
+	 * This function begins the event of a phase, or returns null if the event is not enabled.
+	 */
+	static Object begin(Metrics.Phase phase) {
+		if (!FlightRecorder.isInitialized()) {
+			return null;
+		}
+		PhaseEvent event = new PhaseEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.phase = phase.name();
+		event.begin();
+		return event;
+	}
+
+	/*
+	 * This function ends and commits the event of a phase with the amount of work done.
+	 */
+	static void commit(Object event, long work) {
+		PhaseEvent phaseEvent = (PhaseEvent) event;
+		phaseEvent.work = work;
+		phaseEvent.commit();
+	}
+}
@@ -39,6 +39,8 @@ public class MainClass {
 			RobotPosition position = new RobotPosition(150, 200, 45); //define a position for the robot
 																	//x = 150 pixel, y =200 pixel and theta = 45 degrees
 			MeasurementGenerator generator = new MeasurementGenerator(new File("ressources"+File.separator+"Assignment_5_Grid_Map.png"),map, map, position, parameters);
+			// draw the traces of the generator into a copy of the map
+			generator.setTrace(new PictureTraceSink(ImageIO.read(new File("ressources"+File.separator+"Assignment_5_Grid_Map.png"))));
 			
 			// The computed measurements for the given robot position
 			//measurements = generator.computeMeasurements();
@@ -1,33 +1,51 @@
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
-import java.util.Random;
-
-import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.math3.util.FastMath;
 
 public class MeasurementGenerator {
 
+	// the beam of an offset that has not been computed yet and of an offset outside of the angle range
+	private static final int UNKNOWN_BEAM = -2;
+	private static final int NO_BEAM = -1;
+
 	protected BufferedImage map; // the given map
+	protected OccupancyGrid grid; // the occupancy grid of the given map
+	private ScanSimulator simulator; // simulates the scans, created at its first use
+	private ExpectedRangeTable expectedRanges; // precomputed ranges of the beams, or null
 
 	private double[] measurements; // the computed measurements
 	private double[] realMeasurements; // the computed measurements
 	protected RobotPosition position; // the robot position
 
 	private ModelParameters parameters; // sensor model parameters
+	private SplittableRandom random = new SplittableRandom(); // draws the noisy measurements
+
+	private TraceSink trace = TraceSink.NONE; // receives the debug traces, ignores them by default
 
-	private BufferedImage picture;
+	// the distances and beams of the cell offsets around the robot (see exploreLaserSpace)
+	private double[] sweepDistances;
+	private int[] sweepBeams;
+	private int sweepRadius;
+	// the orientation of the robot the beams of the offsets have been computed for
+	private int sweepTheta;
 
 	public MeasurementGenerator() {
 	}
 
+	/*
+	 * This function is the constructor. The debug traces are ignored, to draw them into
+	 * a copy of the map file, a PictureTraceSink has to be set (see setTrace).
+	 */
 	public MeasurementGenerator(File mapfile, BufferedImage picture,
 			BufferedImage map, RobotPosition pos, ModelParameters param)
 			throws IOException {
-		this.picture = ImageIO.read(mapfile);
 		this.map = map;
+		this.grid = new OccupancyGrid(map);
 		this.position = pos;
 		this.parameters = param;
 		this.measurements = new double[((2 * parameters.getAngleRange()) / parameters
@@ -46,6 +64,13 @@ public class MeasurementGenerator {
 
 	public void setMap(BufferedImage map) {
 		this.map = map;
+		this.grid = new OccupancyGrid(map);
+		this.simulator = null;
+		this.expectedRanges = null;
+	}
+
+	public OccupancyGrid getGrid() {
+		return grid;
 	}
 
 	public RobotPosition getPosition() {
@@ -56,22 +81,68 @@ public class MeasurementGenerator {
 		this.position = position;
 	}
 
+	public ExpectedRangeTable getExpectedRangeTable() {
+		return expectedRanges;
+	}
+
+	/*
+	 * This function sets a precomputed table of expected ranges for the current map,
+	 * which getRaycastRealMeasurement then looks the beams up in instead of casting them.
+	 * The table has to belong to the grid of this generator (see getGrid), null switches back to raycasting.
+	 */
+	public void setExpectedRangeTable(ExpectedRangeTable expectedRanges) {
+		this.expectedRanges = expectedRanges;
+		// the map and the parameters are the same, so the raycaster is kept if it has been created already
+		if (simulator != null) {
+			this.simulator = new ScanSimulator(grid, parameters, expectedRanges, simulator.createdRaycaster());
+		}
+	}
+
+	/*
+	 * This function sets the random source the noisy measurements of this generator are drawn from,
+	 * e.g. a seeded one to make them reproducible.
+	 */
+	public void setRandom(SplittableRandom random) {
+		this.random = random;
+	}
+
 	public ModelParameters getParameters() {
 		return parameters;
 	}
 
 	public void setParameters(ModelParameters parameters) {
 		this.parameters = parameters;
+		this.simulator = null;
+		this.sweepDistances = null;
 	}
 
+	/*
+	 * This function returns the picture the debug traces are drawn into,
+	 * or null if they are not drawn into a picture (see setTrace).
+	 */
 	public BufferedImage getPicture() {
-		return picture;
+		if (trace instanceof PictureTraceSink) {
+			return ((PictureTraceSink) trace).getPicture();
+		}
+		return null;
+	}
+
+	public TraceSink getTrace() {
+		return trace;
+	}
+
+	/*
+	 * This function sets the sink the debug traces (ray paths, hits, measurements) are sent to,
+	 * e.g. a PictureTraceSink to draw them into a copy of the map. By default they are ignored.
+	 */
+	public void setTrace(TraceSink trace) {
+		this.trace = trace == null ? TraceSink.NONE : trace;
 	}
 
 	public double[] laserScanMeasurements() {
 
 		exploreLaserSpace(getLaserSpace());
-		map.setRGB(position.getX(), position.getY(), Color.BLUE.getRGB());
+		trace.trace(position.getX(), position.getY(), TraceSink.Event.ROBOT);
 		for (int i = 0; i < realMeasurements.length; i++) {
 			if (realMeasurements[i] < 0)
 				realMeasurements[i] = -1;
@@ -81,9 +152,7 @@ public class MeasurementGenerator {
 					+ position.getTheta()) * measurements[i]);
 			int y = (int) (Math.sin(mapMatrixPositionToAngle(i)
 					+ position.getTheta()) * measurements[i]);
-			if (x >= 0 && x < picture.getWidth() && y >= 0
-					&& y < picture.getHeight())
-				picture.setRGB(x, y, Color.GREEN.getRGB());
+			trace.trace(x, y, TraceSink.Event.MEASUREMENT);
 
 		}
 
@@ -132,39 +201,16 @@ public class MeasurementGenerator {
 		return realMeasurements;
 	}
 
+
 	/*
-	 * This function generates a measurement based on the expected measurement.
-	 * First we calculate a measurement and it's probability, then we check if
-	 * this pair of measurement and probability belongs to our probability
-	 * density function. If it belongs there we return our measurement, else we
-	 * try recursively until it does.
+	 * This function generates a noisy measurement based on the expected measurement (see ScanSimulator).
 	 */
-
 	private double generateLaserMeasurement(double zExp) {
-
-		double prob;
-		int z;
-
-		z = randomMeasurement();
-		prob = randomMeasurementProbability();
-
-		double[] probalitiesPerMesurent = probabilityDensityFunction(zExp);
-
-		double probOfZ;
-		if (z - 1 >= 0 && z + 1 < probalitiesPerMesurent.length)
-			probOfZ = 3 * ((probalitiesPerMesurent[z - 1] + probalitiesPerMesurent[z + 1]) / 2);
-		else if (z - 1 < 0) {
-			probOfZ = 2 * ((probalitiesPerMesurent[z] + probalitiesPerMesurent[z + 1]) / 2);
-		} else {
-			probOfZ = 2 * ((probalitiesPerMesurent[z - 1] + probalitiesPerMesurent[z]) / 2);
-		}
-		if (probOfZ >= prob)
-			return (z * parameters.getCmPerPixel() * 0.01);
-		else
-			return generateLaserMeasurement(zExp);
+		return getSimulator().generateLaserMeasurement(zExp, random);
 	}
 
-	private int[][] getLaserSpace() {
+	// package-private, so the benchmarks can run exploreLaserSpace on its own
+	int[][] getLaserSpace() {
 
 		int minX, maxX, minY, maxY;
 
@@ -177,14 +223,14 @@ public class MeasurementGenerator {
 		maxY = (int) (position.getY() + parameters.getLaserRange()
 				/ (parameters.getCmPerPixel() * 0.01));
 
-		if (maxX >= map.getWidth())
-			maxX = map.getWidth() - 1;
+		if (maxX >= grid.getWidth())
+			maxX = grid.getWidth() - 1;
 
 		if (minX < 0)
 			minX = 0;
 
-		if (maxY >= map.getHeight())
-			maxY = map.getHeight() - 1;
+		if (maxY >= grid.getHeight())
+			maxY = grid.getHeight() - 1;
 
 		if (minY < 0)
 			minY = 0;
@@ -199,90 +245,139 @@ public class MeasurementGenerator {
 		return extremes;
 	}
 
-	private void exploreLaserSpace(int[][] extremes) {
-
-		// explore top right quadrant
-		int angle, laserAngle;
-		for (int i = position.getX() - 1; i >= extremes[0][0]; i--) {
-			for (int j = position.getY() - 1; j >= extremes[0][1]; j--) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-
-					laserAngle = calculateAngle(i, j);
+	/*
+	 * This function determines the nearest obstacle of every beam within the given extremes in a single sweep
+	 * over the obstacle cells of the grid (which are sorted by x, so only the columns within the extremes are visited).
+	 * Every obstacle is binned into its beam and only the nearest obstacle of every beam is kept, like in a z-buffer.
+	 * The distances of the cell offsets around the robot are looked up in a table (see getSweepDistances).
+	 * The beam of an offset depends on the orientation of the robot, it is computed for obstacles only
+	 * and kept in a table until the orientation changes. As before, cells in the row and the column of the robot
+	 * are not considered and of several nearest obstacles of a beam, the first one in the quadrant order is marked.
+	 */
+	void exploreLaserSpace(int[][] extremes) {
+
+		double[] distances = getSweepDistances();
+		int radius = sweepRadius;
+		int size = 2 * radius + 1;
+		if (sweepTheta != position.getTheta()) {
+			Arrays.fill(sweepBeams, UNKNOWN_BEAM);
+			sweepTheta = position.getTheta();
+		}
 
-					if (Math.abs(laserAngle) <= 135) {
-						laserAngle = mapAngleToMatrixPosition(laserAngle);
-						if (distance(i, j) < 10.001
-								&& (realMeasurements[laserAngle] < 0 || realMeasurements[laserAngle] > distance(
-										i, j))) {
-							realMeasurements[laserAngle] = distance(i, j);
-							picture.setRGB(i, j, Color.MAGENTA.getRGB());
-						}
-					}
-				}
+		double[] nearest = new double[realMeasurements.length];
+		int[] nearestX = new int[realMeasurements.length];
+		int[] nearestY = new int[realMeasurements.length];
+		int[] nearestQuadrant = new int[realMeasurements.length];
+		Arrays.fill(nearest, Double.MAX_VALUE);
+
+		int[] obstacles = grid.getObstacleCells();
+		int k = firstObstacleInColumn(obstacles, extremes[0][0]);
+		for (; k < obstacles.length; k++) {
+			int i = grid.getX(obstacles[k]);
+			int j = grid.getY(obstacles[k]);
+			if (i > extremes[1][0]) {
+				break;
+			}
+			int dx = i - position.getX();
+			int dy = j - position.getY();
+			if (j < extremes[0][1] || j > extremes[1][1] || dx == 0 || dy == 0) {
+				continue;
+			}
+			int offset = (dy + radius) * size + dx + radius;
+			int beam = sweepBeams[offset];
+			if (beam == UNKNOWN_BEAM) {
+				int laserAngle = calculateAngle(i, j);
+				beam = Math.abs(laserAngle) <= parameters.getAngleRange() ? mapAngleToMatrixPosition(laserAngle)
+						: NO_BEAM;
+				sweepBeams[offset] = beam;
+			}
+			if (beam == NO_BEAM) {
+				continue;
+			}
+			double distance = distances[offset];
+			int quadrant = quadrant(dx, dy);
+			if (distance < nearest[beam] || (distance == nearest[beam] && comesFirst(quadrant, i, j,
+					nearestQuadrant[beam], nearestX[beam], nearestY[beam]))) {
+				nearest[beam] = distance;
+				nearestX[beam] = i;
+				nearestY[beam] = j;
+				nearestQuadrant[beam] = quadrant;
 			}
 		}
 
-		// explore top left quadrant
-		for (int i = position.getX() + 1; i <= extremes[1][0]; i++) {
-			for (int j = position.getY() - 1; j >= extremes[0][1]; j--) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-
-					laserAngle = calculateAngle(i, j);
-
-					if (Math.abs(laserAngle) <= 135) {
-						laserAngle = mapAngleToMatrixPosition(laserAngle);
-						if (distance(i, j) < 10.001
-								&& (realMeasurements[laserAngle] < 0 || realMeasurements[laserAngle] > distance(
-										i, j))) {
-							realMeasurements[laserAngle] = distance(i, j);
-							picture.setRGB(i, j, Color.MAGENTA.getRGB());
-						}
-					}
-
-				}
+		for (int beam = 0; beam < realMeasurements.length; beam++) {
+			if (nearest[beam] < 10.001
+					&& (realMeasurements[beam] < 0 || realMeasurements[beam] > nearest[beam])) {
+				realMeasurements[beam] = nearest[beam];
+				trace.trace(nearestX[beam], nearestY[beam], TraceSink.Event.NEAREST_OBSTACLE);
 			}
 		}
+	}
 
-		// explore bottom left quadrant
-		for (int i = position.getX() + 1; i <= extremes[1][0]; i++) {
-			for (int j = position.getY() + 1; j <= extremes[1][1]; j++) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-
-					laserAngle = calculateAngle(i, j);
-					if (Math.abs(laserAngle) <= 135) {
-						laserAngle = mapAngleToMatrixPosition(laserAngle);
-						if (distance(i, j) < 10.001
-								&& (realMeasurements[laserAngle] < 0 || realMeasurements[laserAngle] > distance(
-										i, j))) {
-							realMeasurements[laserAngle] = distance(i, j);
-							picture.setRGB(i, j, Color.MAGENTA.getRGB());
-						}
-					}
-
-				}
+	/*
+	 * This function returns the position of the first obstacle cell in the given column or right of it.
+	 */
+	private int firstObstacleInColumn(int[] obstacles, int x) {
+		int low = 0;
+		int high = obstacles.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (grid.getX(obstacles[middle]) < x) {
+				low = middle + 1;
+			} else {
+				high = middle;
 			}
 		}
+		return low;
+	}
 
-		// explore bottom right quadrant
-		for (int i = position.getX() - 1; i >= extremes[0][0]; i--) {
-			for (int j = position.getY() + 1; j <= extremes[1][1]; j++) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-
-					laserAngle = calculateAngle(i, j);
+	/*
+	 * This function returns the quadrant of the offset in the order the quadrants used to be explored in.
+	 */
+	private int quadrant(int dx, int dy) {
+		if (dy < 0) {
+			return dx < 0 ? 0 : 1;
+		}
+		return dx > 0 ? 2 : 3;
+	}
 
-					if (Math.abs(laserAngle) <= 135) {
-						laserAngle = mapAngleToMatrixPosition(laserAngle);
-						if (distance(i, j) < 10.001
-								&& (realMeasurements[laserAngle] < 0 || realMeasurements[laserAngle] > distance(
-										i, j))) {
-							realMeasurements[laserAngle] = distance(i, j);
-							picture.setRGB(i, j, Color.MAGENTA.getRGB());
-						}
-					}
+	/*
+	 * This function checks whether the obstacle (i, j) in the given quadrant came before the other obstacle
+	 * in the order the quadrants used to be explored in: quadrant by quadrant, within a quadrant
+	 * column by column and row by row, both going away from the robot.
+	 */
+	private boolean comesFirst(int quadrant, int i, int j, int otherQuadrant, int otherI, int otherJ) {
+		if (quadrant != otherQuadrant) {
+			return quadrant < otherQuadrant;
+		}
+		if (i != otherI) {
+			return Math.abs(i - position.getX()) < Math.abs(otherI - position.getX());
+		}
+		return Math.abs(j - position.getY()) < Math.abs(otherJ - position.getY());
+	}
 
-				}
+	/*
+	 * This function returns the distances of all cells in the square of the laser range around the robot,
+	 * where the offset (dx, dy) is stored at (dy + radius) * (2 * radius + 1) + dx + radius.
+	 * The distances only depend on the parameters, so they are computed once.
+	 */
+	private double[] getSweepDistances() {
+		int radius = (int) (parameters.getLaserRange() / (parameters.getCmPerPixel() * 0.01));
+		if (sweepDistances != null && sweepRadius == radius) {
+			return sweepDistances;
+		}
+		int size = 2 * radius + 1;
+		sweepDistances = new double[size * size];
+		for (int dy = -radius; dy <= radius; dy++) {
+			for (int dx = -radius; dx <= radius; dx++) {
+				sweepDistances[(dy + radius) * size + dx + radius] = Math.sqrt(Math.pow(dx, 2) + Math.pow(dy, 2))
+						* parameters.getCmPerPixel() * 0.01;
 			}
 		}
+		sweepBeams = new int[size * size];
+		sweepTheta = Integer.MIN_VALUE;
+		sweepRadius = radius;
+		return sweepDistances;
 	}
 
 	private int calculateAngle(int xObstacle, int yObstacle) {
@@ -327,16 +422,16 @@ public class MeasurementGenerator {
 				.pow(tan, 2) + 1)))) + position.getX();
 		newXY[0] = chooseX(angle, x1, x2);
 
-		if (newXY[0] > map.getWidth() - 1)
-			newXY[0] = map.getWidth() - 1;
+		if (newXY[0] > grid.getWidth() - 1)
+			newXY[0] = grid.getWidth() - 1;
 		else if (newXY[0] < 0)
 			newXY[0] = 0;
 
 		newXY[1] = (int) Math.round(tan * (newXY[0] - position.getX())
 				+ position.getY());
 
-		if (newXY[1] > map.getHeight() - 1) {
-			newXY[1] = map.getHeight() - 1;
+		if (newXY[1] > grid.getHeight() - 1) {
+			newXY[1] = grid.getHeight() - 1;
 			newXY[0] = (int) (((newXY[1] - position.getY()) / tan) + position
 					.getX());
 		} else if (newXY[1] < 0) {
@@ -345,7 +440,7 @@ public class MeasurementGenerator {
 					.getX());
 		}
 
-		picture.setRGB(newXY[0], newXY[1], Color.PINK.getRGB());
+		trace.trace(newXY[0], newXY[1], TraceSink.Event.END_POINT);
 		return newXY;
 	}
 
@@ -369,11 +464,11 @@ public class MeasurementGenerator {
 				(int) (position.getY() + parameters.getLaserRange()
 						/ (parameters.getCmPerPixel() * 0.01)));
 
-		if (newXY[1] >= map.getHeight())
-			newXY[1] = map.getHeight() - 1;
+		if (newXY[1] >= grid.getHeight())
+			newXY[1] = grid.getHeight() - 1;
 		else if (newXY[1] < 0)
 			newXY[1] = 0;
-		picture.setRGB(newXY[0], newXY[1], Color.PINK.getRGB());
+		trace.trace(newXY[0], newXY[1], TraceSink.Event.END_POINT);
 		return newXY;
 	}
 
@@ -397,14 +492,14 @@ public class MeasurementGenerator {
 
 		int curr = position.getY();
 		while (Math.abs(y - curr + 1) != 0 && curr >= 0) {
-			if (map.getRGB(x, curr) == Color.BLACK.getRGB()) {
+			if (grid.isOccupied(x, curr)) {
 				point[0] = x;
 				point[1] = curr;
-				picture.setRGB(x, curr, Color.GRAY.getRGB());
+				trace.trace(x, curr, TraceSink.Event.OBSTACLE);
 
 				return point;
 			}
-			picture.setRGB(x, curr, Color.GREEN.getRGB());
+			trace.trace(x, curr, TraceSink.Event.PATH);
 			curr += sign;
 		}
 		point[0] = -1;
@@ -447,19 +542,17 @@ public class MeasurementGenerator {
 					.getX());
 
 			if (h < maxX + 1 && h > minX - 1) {
-				if (map.getRGB(h, curr) == Color.BLACK.getRGB()) {
+				if (grid.isOccupied(h, curr)) {
 					point[0] = h;
 					point[1] = curr;
-					picture.setRGB(curr, h, Color.GRAY.getRGB());
-					System.out.println("Obstacle in " + h + " " + curr
-							+ " with x " + x + " y " + y);
+					trace.trace(h, curr, TraceSink.Event.OBSTACLE);
 					return point;
 				}
-				picture.setRGB(h, curr, Color.GREEN.getRGB());
+				trace.trace(h, curr, TraceSink.Event.PATH);
 			}
 			curr += sign;
 		}
-		if (map.getRGB(x, y) != Color.BLACK.getRGB()) {
+		if (!grid.isOccupied(x, y)) {
 			point[0] = -1;
 			point[1] = -1;
 		} else {
@@ -529,131 +622,13 @@ public class MeasurementGenerator {
 				* parameters.getCmPerPixel() * 0.01;
 	}
 
-	/*
-	 * This function calculates the probability for the given parameters h, a1,
-	 * a2, a3, a4 and the measurements z and zExp. zExp is the expected
-	 * measurement for the current robot position and the angle of the laser ray
-	 * and it is calculated.
-	 */
-
-	private double probability(double h, double a1, double a2, double a3,
-			double a4, double z, double zExp) {
-
-		return h
-				* (a1 * hitProb(z, zExp) + a2 * unexpProb(z, zExp) + a3
-						* randProb() + a4 * maxProb(z));
-	}
-
-	private double probabilityWithNoObservation(double h, double a3, double a4,
-			double z) {
-
-		return h * (a3 * randProb() + a4 * maxProb(z));
-	}
-
-	/*
-	 * This function returns the probability of having a measurement z while
-	 * expecting a measurement zExp normalized by h.
-	 */
-
-	private double hitProb(double z, double zExp) {
-		return (1 / (Math.sqrt(2 * Math.PI * parameters.getB())) * Math
-				.exp(-(0.5) * ((Math.pow(z - zExp, 2)) / parameters.getB())));
-	}
-
-	/*
-	 * This functions returns the probability of having a measurement z while
-	 * expecting a measurement zExp and an unknown obstacle stands before the
-	 * expecting obstacle.
-	 */
-
-	private double unexpProb(double z, double zExp) {
-
-		if (z < zExp)
-			return parameters.getL() * Math.exp(-parameters.getL() * z);
-		return 0.0;
-	}
-
-	/*
-	 * This function returns the probability for a random measurement.
-	 */
-	private double randProb() {
-		return (Math.pow(parameters.getLaserRange(), -1));
-	}
-
-	/*
-	 * This function returns the probability for a maximum measurement.
-	 */
-	private double maxProb(double z) {
-		if ((parameters.getLaserRange()) - z <= parameters.getzSmall())
-			return (1 / parameters.getzSmall());
-		return 0.0;
-	}
-
-	/*
-	 * This function returns a random value from zero to one.
-	 */
-	private double randomMeasurementProbability() {
-		Random rand = new Random();
-		return rand.nextDouble();
-	}
-
-	/*
-	 * This function returns a random measurement from zero to the number of
-	 * pixels that represent the max range of the laser.
-	 */
-	private int randomMeasurement() {
-
-		Random rand = new Random();
-		int value = rand
-				.nextInt((int) (parameters.getLaserRange() / (parameters
-						.getCmPerPixel() * 0.01)));
-		return value;
-	}
 
 	/*
 	 * This function returns a matrix of double with the probability of the
-	 * corresponding measurement.
+	 * corresponding measurement (see ScanSimulator).
 	 */
 	public double[] probabilityDensityFunction(double zExp) {
-
-		double[] prob = new double[(int) (parameters.getLaserRange() / (parameters
-				.getCmPerPixel() * 0.01)) + 1];
-		double z, h = 1;
-		double a1, a2, a3, a4;
-
-		a1 = 2.5;
-		a2 = 1;
-		a3 = 0.2;
-		a4 = 0.05;
-
-		for (int i = 0; i < prob.length; i++) {
-			z = 0.05 * i;
-			if (zExp >= 0)
-				prob[i] = probability(h, a1, a2, a3, a4, z, zExp);
-			else
-				prob[i] = probabilityWithNoObservation(h, a3, a4, z);
-		}
-
-		double area = 0.0; // area is used for the calculation of
-							// the integral of the density function
-
-		for (int i = 0; i < prob.length - 1; i++) {
-			area = area + (prob[i] + prob[i + 1]) * 0.5;
-		}
-
-		while (area > 1.000000001 || area < 0.0000000001) {
-			h = Math.pow(area, -1);
-
-			for (int i = 0; i < prob.length; i++) {
-				z = 0.01 * parameters.getCmPerPixel() * i;
-				prob[i] = h * prob[i];
-			}
-			area = 0.0;
-			for (int i = 0; i < prob.length - 1; i++) {
-				area = area + (prob[i] + prob[i + 1]) * 0.5;
-			}
-		}
-		return prob;
+		return getSimulator().probabilityDensityFunction(zExp);
 	}
 
 	private int mapAngleToMatrixPosition(int angle) {
@@ -667,7 +642,6 @@ public class MeasurementGenerator {
 			i = (parameters.getAngleRange() / parameters.getAngleStep())
 					+ angle / parameters.getAngleStep();
 		}
-		System.out.println("Angle " + angle + " i " + i);
 		return i;
 	}
 
@@ -683,20 +657,79 @@ public class MeasurementGenerator {
 	}
 	
 	public double[] getBruteForceRealMeasurement(){
-		for(int i=0;i<55;i++){
-			realMeasurements[i] = getObstacleDistance(i*5-135);
+		for(int i=0;i<realMeasurements.length;i++){
+			realMeasurements[i] = getObstacleDistance(i*parameters.getAngleStep()-parameters.getAngleRange());
 		}
 		return realMeasurements;
 	}
 	
+	/*
+	 * This function computes the real measurements like getBruteForceRealMeasurement,
+	 * but casts every beam with the exact grid traversal of the raycaster instead of marching
+	 * in 1 cm steps, so every cell along a beam is visited once and the exact distance to the obstacle is returned.
+	 * Open space is skipped with the distance transform of the map (see Raycaster), so a beam only takes
+	 * a handful of steps through the open parts of the map.
+	 * The beams are taken from the sensor model parameters (angle range and angle step),
+	 * so any number of beams is supported.
+	 * If a table of expected ranges has been set and the robot stands on a free pixel, the beams are looked up in the
+	 * table instead (rounded to its directions and to centimeters).
+	 */
+	public double[] getRaycastRealMeasurement(){
+		ScanSimulator simulator = getSimulator();
+		int[][] hits = trace == TraceSink.NONE ? null : new int[simulator.getBeams()][2];
+		double[] scan = simulator.expectedScan(position, hits);
+		for(int i=0;i<scan.length;i++){
+			realMeasurements[i] = scan[i];
+			if (hits != null && hits[i][0] >= 0){
+				trace.trace(hits[i][0], hits[i][1], TraceSink.Event.HIT);
+			}
+		}
+		return realMeasurements;
+	}
+
+	/*
+	 * This function simulates a noisy laser scan at the given position (see ScanSimulator.simulateScan).
+	 */
+	public double[] simulateScan(RobotPosition position, SplittableRandom random){
+		return getSimulator().simulateScan(position, random);
+	}
+
+	/*
+	 * This function simulates a noisy laser scan for every given position (see ScanSimulator.simulateScans).
+	 */
+	public double[][] simulateScans(RobotPosition[] positions, long seed, ForkJoinPool pool){
+		return getSimulator().simulateScans(positions, seed, pool);
+	}
+
+	/*
+	 * This function returns the raycaster of the current map (e.g. to build a table of expected ranges).
+	 */
+	public Raycaster getRaycaster(){
+		return getSimulator().getRaycaster();
+	}
+
+	/*
+	 * This function returns the scan simulator of the current map, parameters and table of expected ranges.
+	 * It is created at its first use and again whenever one of them has been changed.
+	 * Creating it is cheap, the raycaster of the simulator is only built once a beam has to be cast.
+	 * Unlike the generator, the simulator does not have any state of a single scan, so it can be shared by many threads.
+	 */
+	public ScanSimulator getSimulator(){
+		if (simulator == null){
+			simulator = new ScanSimulator(grid, parameters, expectedRanges);
+		}
+		return simulator;
+	}
+
+
 	private double getObstacleDistance(int angle){
 		double stepsize = 0.01;
 		int completeAngle = position.getTheta()+angle;
 		double realXChange = stepsize*FastMath.cos(FastMath.toRadians(completeAngle));
 		double realYChange = stepsize*FastMath.sin(FastMath.toRadians(-completeAngle));
 		for(double i = 0; i<=(10/stepsize); i ++){
-			if (map.getRGB(findPixelX(position.getX(), realXChange*i), findPixelY(position.getY(), realYChange*i)) == Color.BLACK.getRGB()){
-				picture.setRGB(findPixelX(position.getX(), realXChange*i), findPixelY(position.getY(), realYChange*i), Color.RED.getRGB());
+			if (grid.isOccupied(findPixelX(position.getX(), realXChange*i), findPixelY(position.getY(), realYChange*i))){
+				trace.trace(findPixelX(position.getX(), realXChange*i), findPixelY(position.getY(), realYChange*i), TraceSink.Event.HIT);
 				return i*stepsize;
 			}
 		}
@@ -0,0 +1,173 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * This class collects metrics of the hot paths of the localization: counters of the work done
+ * (cells of likelihood maps computed, poses and beams scored, blocks bounded by the hierarchical search)
+ * and the number and total time of the phases (creating likelihood maps, searching poses, rendering pictures).
+ * The metrics are collected for all threads and can be queried at any time.
+ * Collecting is disabled by default (it can be enabled with -Dlocalization.metrics=true or setEnabled),
+ * and then only costs a read of a flag. The hot loops do not count every pose themselves,
+ * they add up their work and report it once per column or search.
+ * Independently of that, every phase is reported as a JFR event "localization.Phase" (see LocalizationEvents)
+ * while a flight recording with that event enabled is running, if the JVM supports JFR.
+ */
+public final class Metrics {
+
+	/*
+	 * The kinds of work that are counted.
+	 */
+	public enum Counter {
+		CELLS, // cells of likelihood maps computed
+		POSES, // poses scored exactly
+		BEAMS, // beam endpoints looked up to score poses
+		BLOCKS // blocks of poses bounded by the hierarchical search
+	}
+
+	/*
+	 * The phases that are timed.
+	 */
+	public enum Phase {
+		FIELD_BUILD, // creating a likelihood map or a tile of it
+		SEARCH, // searching the poses of a scan
+		RENDER // rendering a picture of likelihoods
+	}
+
+	private static final boolean JFR = isJfrAvailable();
+	private static final LongAdder[] COUNTS = adders(Counter.values().length);
+	private static final LongAdder[] PHASE_COUNTS = adders(Phase.values().length);
+	private static final LongAdder[] PHASE_NANOS = adders(Phase.values().length);
+	// the timer returned while neither the metrics nor the JFR event are enabled
+	private static final Timer NONE = new Timer(null, false, 0, null);
+
+	private static volatile boolean enabled = Boolean.getBoolean("localization.metrics");
+
+	private Metrics() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	/*
+	 * This function adds the given amount of work to a counter.
+	 */
+	public static void add(Counter counter, long amount) {
+		if (enabled) {
+			COUNTS[counter.ordinal()].add(amount);
+		}
+	}
+
+	/*
+	 * This function starts timing a phase. The returned timer has to be stopped when the phase ends.
+	 */
+	public static Timer start(Phase phase) {
+		boolean on = enabled;
+		Object event = JFR ? LocalizationEvents.begin(phase) : null;
+		if (!on && event == null) {
+			return NONE;
+		}
+		return new Timer(phase, on, on ? System.nanoTime() : 0, event);
+	}
+
+	/*
+	 * These functions return the value of a counter, and the number and total time in nanoseconds of a phase,
+	 * since the start of the JVM or the last reset.
+	 */
+	public static long get(Counter counter) {
+		return COUNTS[counter.ordinal()].sum();
+	}
+	public static long getCount(Phase phase) {
+		return PHASE_COUNTS[phase.ordinal()].sum();
+	}
+	public static long getNanos(Phase phase) {
+		return PHASE_NANOS[phase.ordinal()].sum();
+	}
+
+	/*
+	 * This function returns all metrics by their names (e.g. "POSES", "SEARCH.count", "SEARCH.nanos").
+	 */
+	public static Map<String, Long> snapshot() {
+		Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+		for (Counter counter : Counter.values()) {
+			metrics.put(counter.name(), get(counter));
+		}
+		for (Phase phase : Phase.values()) {
+			metrics.put(phase.name() + ".count", getCount(phase));
+			metrics.put(phase.name() + ".nanos", getNanos(phase));
+		}
+		return metrics;
+	}
+
+	/*
+	 * This function sets all metrics back to zero.
+	 */
+	public static void reset() {
+		for (LongAdder[] adders : new LongAdder[][] { COUNTS, PHASE_COUNTS, PHASE_NANOS }) {
+			for (LongAdder adder : adders) {
+				adder.reset();
+			}
+		}
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/*
+	 * This function checks whether the JVM supports JFR events (Java 8 before update 262 does not),
+	 * so LocalizationEvents is never loaded without it.
+	 */
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	/*
+	 * This class describes the timing of a running phase.
+	 */
+	public static final class Timer {
+
+		private final Phase phase;
+		private final boolean counted;
+		private final long start;
+		// the JFR event of the phase, or null
+		private final Object event;
+
+		private Timer(Phase phase, boolean counted, long start, Object event) {
+			this.phase = phase;
+			this.counted = counted;
+			this.start = start;
+			this.event = event;
+		}
+
+		/*
+		 * This function ends the phase, which has done the given amount of work
+		 * (e.g. the number of cells or poses, reported in the JFR event).
+		 */
+		public void stop(long work) {
+			if (counted) {
+				PHASE_NANOS[phase.ordinal()].add(System.nanoTime() - start);
+				PHASE_COUNTS[phase.ordinal()].increment();
+			}
+			if (event != null) {
+				LocalizationEvents.commit(event, work);
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/*
+ * This class describes the occupancy grid of a map.
+ * It is built once from the map picture, so that the hot loops do not have to
+ * ask the picture for the colour of a pixel (and go through its colour model) every time.
+ * Every cell is stored as one byte in row-major order (index = y * width + x).
+ * Black pixels are obstacles, white pixels are free space and any other colour is unknown.
+ * Additionally the grid keeps the lists of all obstacle cells and all free cells.
+ * Both lists are ordered by x first and by y second, which is the order in which
+ * the likelihood maps traverse the map.
+ */
+public class OccupancyGrid {
+
+	// the possible states of a cell
+	public static final byte FREE = 0;
+	public static final byte OCCUPIED = 1;
+	public static final byte UNKNOWN = 2;
+
+	private final int width;
+	private final int height;
+	// the states of all cells in row-major order
+	private final byte[] cells;
+	// the indices of all obstacle cells and all free cells
+	private final int[] obstacleCells;
+	private final int[] freeCells;
+
+	/*
+	 * This function is the constructor.
+	 * It reads all pixels of the map at once and classifies them as free, occupied or unknown.
+	 */
+	public OccupancyGrid(BufferedImage map) {
+		this(map.getWidth(), map.getHeight(), classify(map));
+	}
+
+	/*
+	 * This function is the constructor for a grid whose cells are already known (e.g. a synthetic map),
+	 * given as one state per cell in row-major order. The grid keeps the array, so it must not be changed afterwards.
+	 * The obstacle and free cells are collected into their lists.
+	 */
+	public OccupancyGrid(int width, int height, byte[] cells) {
+		if (cells.length != width * height) {
+			throw new IllegalArgumentException("Expected " + width * height + " cells, got " + cells.length);
+		}
+		this.width = width;
+		this.height = height;
+		this.cells = cells;
+
+		int obstacles = 0;
+		int free = 0;
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i] == OCCUPIED) {
+				obstacles++;
+			} else if (cells[i] == FREE) {
+				free++;
+			}
+		}
+
+		obstacleCells = new int[obstacles];
+		freeCells = new int[free];
+		obstacles = 0;
+		free = 0;
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				int index = y * width + x;
+				if (cells[index] == OCCUPIED) {
+					obstacleCells[obstacles++] = index;
+				} else if (cells[index] == FREE) {
+					freeCells[free++] = index;
+				}
+			}
+		}
+	}
+
+	/*
+	 * This function classifies all pixels of the map: black pixels are obstacles, white pixels are free space
+	 * and any other colour is unknown.
+	 */
+	private static byte[] classify(BufferedImage map) {
+		int[] rgb = map.getRGB(0, 0, map.getWidth(), map.getHeight(), null, 0, map.getWidth());
+		byte[] cells = new byte[rgb.length];
+		int black = Color.BLACK.getRGB();
+		int white = Color.WHITE.getRGB();
+		for (int i = 0; i < rgb.length; i++) {
+			if (rgb[i] == black) {
+				cells[i] = OCCUPIED;
+			} else if (rgb[i] == white) {
+				cells[i] = FREE;
+			} else {
+				cells[i] = UNKNOWN;
+			}
+		}
+		return cells;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/*
+	 * These functions convert between the cell coordinates and the row-major index of a cell.
+	 */
+	public int index(int x, int y) {
+		return y * width + x;
+	}
+	public int getX(int index) {
+		return index % width;
+	}
+	public int getY(int index) {
+		return index / width;
+	}
+
+	/*
+	 * This function checks whether the given cell coordinates lie inside the map.
+	 */
+	public boolean contains(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+	/*
+	 * These functions return the state of the given cell.
+	 * Cells outside of the map are neither occupied nor free.
+	 */
+	public boolean isOccupied(int x, int y) {
+		return contains(x, y) && cells[y * width + x] == OCCUPIED;
+	}
+	public boolean isFree(int x, int y) {
+		return contains(x, y) && cells[y * width + x] == FREE;
+	}
+	public byte getState(int index) {
+		return cells[index];
+	}
+
+	/*
+	 * These functions return the indices of all obstacle cells and all free cells.
+	 * The returned arrays are shared and must not be changed.
+	 */
+	public int[] getObstacleCells() {
+		return obstacleCells;
+	}
+	public int[] getFreeCells() {
+		return freeCells;
+	}
+}
@@ -0,0 +1,441 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.util.FastMath;
+
+/*
+ * This class describes a Monte Carlo localization (particle filter) of the robot.
+ * Instead of scoring every pose of the map for every scan like the position finder does,
+ * it keeps a set of particles (possible robot poses) that are moved with the odometry and
+ * weighted with the likelihood map of the position finder for every new scan.
+ * The particles are stored as separate arrays of x, y (in pixels, the pixel i covers [i, i+1)) and theta (in degrees),
+ * and the weighting runs one beam after the other over all particles, so the inner loops
+ * are simple loops over arrays.
+ * After the weighting, the particles are resampled with the low variance sampler. The number of particles
+ * is adapted with KLD-sampling: it is chosen such that the error between the sampled and the true
+ * distribution is below KLD_ERROR with probability KLD_QUANTILE, depending on the number of occupied histogram bins.
+ * All arrays are allocated once for the maximum number of particles, so an update does not allocate anything.
+ */
+public class ParticleFilter {
+
+	// the maximal measurement range, beams with this measurement did not hit anything and are ignored
+	private static final double MAX_MEASUREMENT = 10.0;
+	// the number of pixels per meter
+	private static final double PIXELS_PER_METER = 20.0;
+
+	// the noise of the motion model: rotation per rotation, rotation per meter,
+	// translation per meter and translation per rotation (in degrees)
+	private static final double ROTATION_NOISE = 0.1;
+	private static final double ROTATION_PER_TRANSLATION_NOISE = 2.0;
+	private static final double TRANSLATION_NOISE = 0.1;
+	private static final double TRANSLATION_PER_ROTATION_NOISE = 0.002;
+	// a minimal noise, so that particles do not collapse into a single pose when the robot stands still
+	private static final double MIN_TRANSLATION_NOISE = 0.01;
+	private static final double MIN_ROTATION_NOISE = 0.5;
+
+	// the measurement model mixes the likelihood of the endpoint with a uniform random measurement
+	private static final double HIT_WEIGHT = 0.9;
+	private static final double RANDOM_WEIGHT = 0.1;
+
+	// the parameters of the KLD-sampling
+	private static final double KLD_ERROR = 0.05;
+	// the upper 0.99 quantile of the standard normal distribution
+	private static final double KLD_QUANTILE = 2.326;
+	// the size of the histogram bins in pixels and degrees
+	private static final int BIN_SIZE = 10;
+	private static final int BIN_ANGLE = 10;
+
+	private final OccupancyGrid grid;
+	private final PositionFinder finder;
+	private final boolean lowestDistanceApproach;
+	// the likelihood used for endpoints outside of the map
+	private final double outsideLikelihood;
+	private final int minParticles;
+	private final int maxParticles;
+	private final Random random;
+
+	private double[] x;
+	private double[] y;
+	private double[] theta;
+	private final double[] weights;
+	private int count;
+	// the particles are resampled into these arrays, which are then swapped with the ones above
+	private double[] nextX;
+	private double[] nextY;
+	private double[] nextTheta;
+	// the cumulated weights and the cosine and sine of the orientation of every particle
+	private final double[] cumulated;
+	private final double[] cos;
+	private final double[] sin;
+	// the histogram bins occupied by the particles
+	private final BinCounts bins;
+
+	/*
+	 * This function is the constructor.
+	 * It uses the occupancy grid and one of the likelihood maps of the position finder,
+	 * the number of particles is adapted between minParticles and maxParticles.
+	 * Likelihoods are looked up pixel by pixel, so with the lowest distance approach only the tiles
+	 * of the likelihood map the particles actually reach are created.
+	 * The seed makes the filter reproducible.
+	 */
+	public ParticleFilter(PositionFinder finder, boolean lowestDistanceApproach,
+			int minParticles, int maxParticles, long seed) {
+		if (minParticles < 1 || maxParticles < minParticles) {
+			throw new IllegalArgumentException("Invalid particle counts " + minParticles + " and " + maxParticles);
+		}
+		this.grid = finder.getGrid();
+		this.finder = finder;
+		this.lowestDistanceApproach = lowestDistanceApproach;
+		this.minParticles = minParticles;
+		this.maxParticles = maxParticles;
+		this.random = new Random(seed);
+
+		this.outsideLikelihood = finder.getEmptyLikelihood(lowestDistanceApproach);
+
+		x = new double[maxParticles];
+		y = new double[maxParticles];
+		theta = new double[maxParticles];
+		weights = new double[maxParticles];
+		nextX = new double[maxParticles];
+		nextY = new double[maxParticles];
+		nextTheta = new double[maxParticles];
+		cumulated = new double[maxParticles];
+		cos = new double[maxParticles];
+		sin = new double[maxParticles];
+		bins = new BinCounts(maxParticles);
+	}
+
+	public int getParticleCount() {
+		return count;
+	}
+
+	/*
+	 * This function spreads the maximum number of particles uniformly over all free pixels
+	 * and all orientations, for a robot whose position is completely unknown.
+	 */
+	public void initialiseGlobally() {
+		int[] freeCells = grid.getFreeCells();
+		if (freeCells.length == 0) {
+			throw new IllegalStateException("The map does not have any free position");
+		}
+		count = maxParticles;
+		for (int i = 0; i < count; i++) {
+			int cell = freeCells[random.nextInt(freeCells.length)];
+			x[i] = grid.getX(cell) + random.nextDouble();
+			y[i] = grid.getY(cell) + random.nextDouble();
+			theta[i] = random.nextDouble() * 360;
+			weights[i] = 1.0 / count;
+		}
+	}
+
+	/*
+	 * This function spreads the maximum number of particles around a known robot position.
+	 * The spreads are the standard deviations in pixels and degrees.
+	 */
+	public void initialise(RobotPosition position, double positionSpread, double angleSpread) {
+		count = maxParticles;
+		for (int i = 0; i < count; i++) {
+			x[i] = position.getX() + 0.5 + random.nextGaussian() * positionSpread;
+			y[i] = position.getY() + 0.5 + random.nextGaussian() * positionSpread;
+			theta[i] = wrapTo360(position.getTheta() + random.nextGaussian() * angleSpread);
+			weights[i] = 1.0 / count;
+		}
+	}
+
+	/*
+	 * This function runs one step of the filter: The particles are moved by the odometry
+	 * (forward and sideways in meters in the robot frame, rotation in degrees), weighted with the
+	 * given measurements and resampled.
+	 */
+	public void update(double[] measurements, double forward, double sideways, double rotation) {
+		move(forward, sideways, rotation);
+		weigh(measurements);
+		resample();
+	}
+
+	/*
+	 * This function moves every particle by the odometry with added gaussian noise.
+	 * The noise of the translation and rotation grows with both the translation and the rotation.
+	 */
+	private void move(double forward, double sideways, double rotation) {
+		double translation = FastMath.sqrt(forward * forward + sideways * sideways);
+		double translationNoise = Math.max(MIN_TRANSLATION_NOISE,
+				TRANSLATION_NOISE * translation + TRANSLATION_PER_ROTATION_NOISE * Math.abs(rotation));
+		double rotationNoise = Math.max(MIN_ROTATION_NOISE,
+				ROTATION_NOISE * Math.abs(rotation) + ROTATION_PER_TRANSLATION_NOISE * translation);
+		for (int i = 0; i < count; i++) {
+			double noisyForward = forward + random.nextGaussian() * translationNoise;
+			double noisySideways = sideways + random.nextGaussian() * translationNoise;
+			double radTheta = FastMath.toRadians(theta[i]);
+			double cos = FastMath.cos(radTheta);
+			double sin = FastMath.sin(radTheta);
+			x[i] += PIXELS_PER_METER * (noisyForward * cos - noisySideways * sin);
+			y[i] += PIXELS_PER_METER * (noisyForward * sin + noisySideways * cos);
+			theta[i] = wrapTo360(theta[i] + rotation + random.nextGaussian() * rotationNoise);
+		}
+	}
+
+	/*
+	 * This function weighs every particle with the likelihood of the measurements.
+	 * Like the likelihood field model of the position finder, the likelihood of the endpoint of every beam is looked up
+	 * and mixed with the probability of a random measurement. The weight of a particle is the product over all beams,
+	 * which is accumulated as a sum of logarithms and scaled by the best particle afterwards to avoid underflow.
+	 * Particles outside of the free space get no weight at all.
+	 * The sine and cosine of every particle are computed once, the directions of the single beams
+	 * are then derived with the angle addition theorems. The beams cover the angles of the scans
+	 * the position finder has been set up for (see PositionFinder.setScanAngles).
+	 */
+	private void weigh(double[] measurements) {
+		for (int i = 0; i < count; i++) {
+			double radTheta = FastMath.toRadians(theta[i]);
+			cos[i] = FastMath.cos(radTheta);
+			sin[i] = FastMath.sin(radTheta);
+			weights[i] = 0.0;
+		}
+
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		int firstBeamAngle = finder.getFirstBeamAngle();
+		int beamStep = finder.getBeamStep();
+		for (int l = 0; l < measurements.length; l++) {
+			if (measurements[l] >= MAX_MEASUREMENT) {
+				continue;
+			}
+			double radBeam = FastMath.toRadians(firstBeamAngle + l * beamStep);
+			double beamX = PIXELS_PER_METER * measurements[l] * FastMath.cos(radBeam);
+			double beamY = PIXELS_PER_METER * measurements[l] * FastMath.sin(radBeam);
+			for (int i = 0; i < count; i++) {
+				int endpointX = (int) FastMath.floor(x[i] + beamX * cos[i] - beamY * sin[i]);
+				int endpointY = (int) FastMath.floor(y[i] + beamX * sin[i] + beamY * cos[i]);
+				double likelihood = outsideLikelihood;
+				if (endpointX >= 0 && endpointX < width && endpointY >= 0 && endpointY < height) {
+					likelihood = finder.getLikelihood(lowestDistanceApproach, endpointX, endpointY);
+				}
+				weights[i] += FastMath.log(HIT_WEIGHT * likelihood + RANDOM_WEIGHT);
+			}
+		}
+
+		double maxLogWeight = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			if (!grid.isFree((int) FastMath.floor(x[i]), (int) FastMath.floor(y[i]))) {
+				weights[i] = Double.NEGATIVE_INFINITY;
+			}
+			maxLogWeight = Math.max(maxLogWeight, weights[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			weights[i] = maxLogWeight == Double.NEGATIVE_INFINITY ? 0.0 : FastMath.exp(weights[i] - maxLogWeight);
+		}
+	}
+
+	/*
+	 * This function draws a new set of particles with the low variance sampler:
+	 * a single random number determines equally spaced teeth of a comb over the cumulated weights,
+	 * and every tooth draws the particle it falls on. The number of new particles is determined by KLD-sampling
+	 * while they are drawn: the histogram bins of the particles drawn so far are counted, and drawing stops
+	 * as soon as their number reaches the bound for the number of occupied bins.
+	 * So that the particles drawn until then represent all of the weights, the comb has a power of two teeth
+	 * (at least the maximum number of particles), which are visited in bit-reversed order (0, 1/2, 1/4, 3/4, ...):
+	 * the teeth visited so far are always spread evenly over the whole comb.
+	 */
+	private void resample() {
+		double total = 0.0;
+		for (int i = 0; i < count; i++) {
+			total += weights[i];
+			cumulated[i] = total;
+		}
+		if (total == 0.0) {
+			// all particles left the free space, the robot has to be found again
+			initialiseGlobally();
+			return;
+		}
+
+		int teeth = Integer.highestOneBit(maxParticles);
+		if (teeth < maxParticles) {
+			teeth *= 2;
+		}
+		int bits = Integer.numberOfTrailingZeros(teeth);
+		double step = total / teeth;
+		double offset = random.nextDouble() * step;
+		bins.clear();
+		int n = 0;
+		while (n < maxParticles && (n < minParticles || n < kldParticleCount(bins.size()))) {
+			int tooth = bits == 0 ? 0 : Integer.reverse(n) >>> (32 - bits);
+			int i = Arrays.binarySearch(cumulated, 0, count, offset + tooth * step);
+			if (i < 0) {
+				i = -i - 1;
+			}
+			i = Math.min(i, count - 1);
+			nextX[n] = x[i];
+			nextY[n] = y[i];
+			nextTheta[n] = theta[i];
+			bins.add(bin(x[i], y[i], theta[i]));
+			n++;
+		}
+		double[] swap = x;
+		x = nextX;
+		nextX = swap;
+		swap = y;
+		y = nextY;
+		nextY = swap;
+		swap = theta;
+		theta = nextTheta;
+		nextTheta = swap;
+		count = n;
+		for (int m = 0; m < count; m++) {
+			weights[m] = 1.0 / count;
+		}
+	}
+
+	/*
+	 * This function returns the histogram bin of a particle.
+	 */
+	private static long bin(double x, double y, double theta) {
+		long binX = (long) FastMath.floor(x / BIN_SIZE);
+		long binY = (long) FastMath.floor(y / BIN_SIZE);
+		long binTheta = (long) (theta / BIN_ANGLE);
+		return (binX * 100003L + binY) * 1009L + binTheta;
+	}
+
+	/*
+	 * This function returns the number of particles KLD-sampling requires for k occupied bins,
+	 * limited to the minimal and maximal number of particles.
+	 */
+	private int kldParticleCount(int k) {
+		if (k <= 1) {
+			return minParticles;
+		}
+		double a = 2.0 / (9.0 * (k - 1));
+		double b = 1.0 - a + FastMath.sqrt(a) * KLD_QUANTILE;
+		double n = (k - 1) / (2.0 * KLD_ERROR) * b * b * b;
+		return (int) Math.max(minParticles, Math.min(maxParticles, FastMath.ceil(n)));
+	}
+
+	/*
+	 * This function returns the estimated robot position as the mean of the particles of the strongest cluster.
+	 * The particles are counted in square bins of BIN_SIZE pixels, and the cluster consists of the particles
+	 * in the 3 x 3 bins around the bin whose neighbourhood holds the most weight. So a cloud with several modes
+	 * (like right after initialiseGlobally) gives a pose of its strongest mode instead of a pose between the modes,
+	 * which may well lie within a wall. The orientation is the mean direction of the particles of the cluster.
+	 * Until the filter has converged, the strongest mode may still be a wrong one.
+	 */
+	public RobotPosition getEstimate() {
+		// all particles have the same weight after initialising and resampling, so the bins count particles
+		bins.clear();
+		for (int i = 0; i < count; i++) {
+			bins.add(bin(x[i], y[i], 0));
+		}
+		long bestX = 0;
+		long bestY = 0;
+		int bestCount = -1;
+		for (int i = 0; i < count; i++) {
+			long binX = (long) FastMath.floor(x[i] / BIN_SIZE);
+			long binY = (long) FastMath.floor(y[i] / BIN_SIZE);
+			int neighbourhood = 0;
+			for (long dx = -1; dx <= 1; dx++) {
+				for (long dy = -1; dy <= 1; dy++) {
+					neighbourhood += bins.get(bin((binX + dx) * BIN_SIZE, (binY + dy) * BIN_SIZE, 0));
+				}
+			}
+			if (neighbourhood > bestCount) {
+				bestCount = neighbourhood;
+				bestX = binX;
+				bestY = binY;
+			}
+		}
+
+		double sumX = 0.0;
+		double sumY = 0.0;
+		double sumCos = 0.0;
+		double sumSin = 0.0;
+		int members = 0;
+		for (int i = 0; i < count; i++) {
+			if (Math.abs((long) FastMath.floor(x[i] / BIN_SIZE) - bestX) > 1
+					|| Math.abs((long) FastMath.floor(y[i] / BIN_SIZE) - bestY) > 1) {
+				continue;
+			}
+			sumX += x[i];
+			sumY += y[i];
+			double radTheta = FastMath.toRadians(theta[i]);
+			sumCos += FastMath.cos(radTheta);
+			sumSin += FastMath.sin(radTheta);
+			members++;
+		}
+		int meanTheta = (int) FastMath.round(wrapTo360(FastMath.toDegrees(FastMath.atan2(sumSin, sumCos)))) % 360;
+		return new RobotPosition((int) FastMath.floor(sumX / members), (int) FastMath.floor(sumY / members), meanTheta);
+	}
+
+	/*
+	 * this function wraps the input angle to [0, 360) degrees
+	 */
+	private static double wrapTo360(double angle) {
+		angle = angle % 360;
+		return angle < 0 ? angle + 360 : angle;
+	}
+
+	/*
+	 * This class counts the particles in histogram bins. The bins are kept in an open-addressed hash table
+	 * of a fixed size (at least twice the maximum number of particles, so it never gets full),
+	 * which does not allocate anything while the particles are counted.
+	 */
+	private static class BinCounts {
+
+		// marks an empty slot, no bin of a particle has this value
+		private static final long EMPTY = Long.MIN_VALUE;
+
+		private final long[] keys;
+		private final int[] counts;
+		private int size;
+
+		BinCounts(int capacity) {
+			int length = Integer.highestOneBit(Math.max(1, capacity)) * 4;
+			keys = new long[length];
+			counts = new int[length];
+			Arrays.fill(keys, EMPTY);
+		}
+
+		/*
+		 * This function returns the number of occupied bins.
+		 */
+		int size() {
+			return size;
+		}
+
+		void clear() {
+			Arrays.fill(keys, EMPTY);
+			Arrays.fill(counts, 0);
+			size = 0;
+		}
+
+		/*
+		 * This function counts a particle in the given bin.
+		 */
+		void add(long bin) {
+			int slot = slot(bin);
+			if (keys[slot] == EMPTY) {
+				keys[slot] = bin;
+				size++;
+			}
+			counts[slot]++;
+		}
+
+		/*
+		 * This function returns the number of particles counted in the given bin.
+		 */
+		int get(long bin) {
+			int slot = slot(bin);
+			return keys[slot] == EMPTY ? 0 : counts[slot];
+		}
+
+		/*
+		 * This function returns the slot of the bin, or the empty slot where it would be put.
+		 */
+		private int slot(long bin) {
+			int mask = keys.length - 1;
+			int slot = (int) ((bin * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != bin) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/*
+ * This class describes a trace sink which draws the traced cells into a picture,
+ * in the colours the measurement generator has always used for them.
+ * Cells outside of the picture are ignored.
+ */
+public class PictureTraceSink implements TraceSink {
+
+	private final BufferedImage picture;
+
+	public PictureTraceSink(BufferedImage picture) {
+		this.picture = picture;
+	}
+
+	public BufferedImage getPicture() {
+		return picture;
+	}
+
+	public void trace(int x, int y, Event event) {
+		if (x < 0 || x >= picture.getWidth() || y < 0 || y >= picture.getHeight()) {
+			return;
+		}
+		picture.setRGB(x, y, color(event).getRGB());
+	}
+
+	/*
+	 * This function returns the colour of the given kind of cells.
+	 */
+	private static Color color(Event event) {
+		switch (event) {
+		case ROBOT:
+			return Color.BLUE;
+		case PATH:
+		case MEASUREMENT:
+			return Color.GREEN;
+		case END_POINT:
+			return Color.PINK;
+		case OBSTACLE:
+			return Color.GRAY;
+		case HIT:
+			return Color.RED;
+		default:
+			return Color.MAGENTA;
+		}
+	}
+}
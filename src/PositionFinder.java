@@ -1,7 +1,15 @@
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.imageio.ImageIO;
 
@@ -19,6 +27,17 @@ public class PositionFinder {
 	// the general probability to return the maximum measurement
 	private static final double MAX_MEASUREMENT_PROBABILITY = 0.1;
 		
+	// the number of levels of the likelihood pyramids used by the hierarchical pose search,
+	// the coarsest level considers blocks of 2^(PYRAMID_LEVELS-1) x 2^(PYRAMID_LEVELS-1) pixels at once
+	private static final int PYRAMID_LEVELS = 7;
+	// the margin by which the cascaded scoring underestimates the score a pose has to beat,
+	// so rounding differences between the cascade and the exact score never reject a pose that would get in
+	private static final double BOUND_TOLERANCE = 1e-9;
+	// the size of the blocks of positions the exhaustive search rejects at once
+	private static final int CASCADE_BLOCK_SIZE = 8;
+	// the number of map columns below which a parallel pose search task is not split any further
+	private static final int COLUMNS_PER_TASK = 4;
+		
 	// the calculation range in pixels (on a straight horizontal/vertical line)
 	private static final int PIXEL_CALCULATION_RANGE = (int) FastMath.floor(CALCULATION_RANGE / 0.05);
 	// the normal distribution of the distance to an obstacle
@@ -33,34 +52,162 @@ public class PositionFinder {
 	// the address of the map
 	private static final String MAP_ADDRESS = "ressources"+File.separator+"Assignment_5_Grid_Map.png";
 	
-	// the original map
-	private final BufferedImage map;
-	// the two likelihood maps corresponding to the two different approaches
-	private double[][] summedUpLikelihoodMap;
-	private double[][] lowestDistanceLikelihoodMap;
+	// the occupancy grid of the original map
+	private final OccupancyGrid grid;
+	// the cache the likelihood maps are loaded from and stored in, or null
+	private final LikelihoodMapCache cache;
+	// the two likelihood maps corresponding to the two different approaches, created at their first use
+	// they are never changed after the creation, so they can be shared by all pose search workers
+	private volatile double[][] summedUpLikelihoodMap;
+	private volatile double[][] lowestDistanceLikelihoodMap;
+	// the likelihood map of the lowest distance approach, created tile by tile when single pixels are looked up
+	private final TiledLikelihoodMap lowestDistanceTiles;
+	// the likelihood of positions without any obstacle nearby in the summed up map, determined at its first use
+	private double summedUpEmptyLikelihood;
+	// the max-pooled pyramids of the two likelihood maps, created at the first hierarchical search
+	private LikelihoodPyramid summedUpPyramid;
+	private LikelihoodPyramid lowestDistancePyramid;
 	// the range of the robot position values
 	private static final int THETA = 360;
 	private final int X;
 	private final int Y;
+	// the pool running the pose search, or null if it runs on the calling thread
+	private volatile ForkJoinPool pool;
+	// whether the pool has been created by setParallelism, so it is shut down when it is replaced
+	private boolean ownsPool;
+	// the positions the pose search considers
+	private volatile CandidateIndex candidates;
+	// the angle of the first beam of a scan and the angle between neighbouring beams in degrees
+	private int firstBeamAngle = -135;
+	private int beamStep = 5;
 	
 	/*
 	 * This function is the constructor.
 	 * The initialization of the positionFinder consists of loading the map
-	 * and setting the X- and Y-ranges accordingly as well as the initial
-	 * creation of the two likelihood maps
+	 * and setting the X- and Y-ranges accordingly. The two likelihood maps
+	 * are only created when they are used for the first time, so a position finder that only
+	 * uses one of the approaches never pays for the other one.
 	 */
 	public PositionFinder() {
-		map = loadMap();
-		X = map.getWidth();
-		Y = map.getHeight();
-		summedUpLikelihoodMap = generateMapSummingUp();
-		lowestDistanceLikelihoodMap = generateMapLowestDistance();
+		this(null);
+	}
+
+	/*
+	 * This function is the constructor with a persistent cache of the likelihood maps.
+	 * If a likelihood map has been stored in the cache directory before (by any position finder
+	 * with the same map and parameters), it is loaded from there instead of being created at its first use,
+	 * otherwise it is created and stored there. Without a cache directory (null), the maps are always created.
+	 */
+	public PositionFinder(File cacheDirectory) {
+		this(new OccupancyGrid(loadMap()), cacheDirectory);
+	}
+
+	/*
+	 * This function is the constructor for any other map than the map file of the assignment,
+	 * e.g. a synthetic map for benchmarks, with an optional cache directory (null for none).
+	 */
+	public PositionFinder(OccupancyGrid grid, File cacheDirectory) {
+		this.grid = grid;
+		X = grid.getWidth();
+		Y = grid.getHeight();
+		cache = cacheDirectory == null ? null : new LikelihoodMapCache(cacheDirectory);
+		lowestDistanceTiles = new TiledLikelihoodMap(grid, gaussianBySquaredDistance(gaussianSquare()),
+				PIXEL_CALCULATION_RANGE, MIN_PROBABILITY);
+		candidates = new CandidateIndex(grid);
+	}
+	
+	/*
+	 * This function returns either of the two likelihood maps.
+	 * The map is loaded from the cache or created when it is needed for the first time.
+	 */
+	private double[][] likelihoodMap(boolean lowestDistanceApproach) {
+		double[][] probabilities = lowestDistanceApproach ? lowestDistanceLikelihoodMap : summedUpLikelihoodMap;
+		if (probabilities != null) {
+			return probabilities;
+		}
+		synchronized (this) {
+			if (lowestDistanceApproach) {
+				if (lowestDistanceLikelihoodMap == null) {
+					lowestDistanceLikelihoodMap = loadOrGenerateMap(true);
+				}
+				return lowestDistanceLikelihoodMap;
+			}
+			if (summedUpLikelihoodMap == null) {
+				summedUpLikelihoodMap = loadOrGenerateMap(false);
+			}
+			return summedUpLikelihoodMap;
+		}
+	}
+
+	/*
+	 * This function returns either of the two likelihood maps from the cache,
+	 * or creates it and stores it in the cache, if it has not been stored there yet.
+	 * Problems with the cache are reported, but the map is created anyway.
+	 */
+	private double[][] loadOrGenerateMap(boolean lowestDistanceApproach) {
+		String name = lowestDistanceApproach ? "lowestDistance" : "summedUp";
+		if (cache != null) {
+			try {
+				double[][] probabilities = cache.load(name, grid, STANDARD_DEVIATION, CALCULATION_RANGE);
+				if (probabilities != null) {
+					return probabilities;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		double[][] probabilities = lowestDistanceApproach ? generateMapLowestDistance() : generateMapSummingUp();
+		if (cache != null) {
+			try {
+				cache.store(name, grid, STANDARD_DEVIATION, CALCULATION_RANGE, probabilities);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return probabilities;
 	}
 	
+	/*
+	 * This function returns the likelihood of a single pixel in either of the two likelihood maps.
+	 * As long as the complete lowest distance map has not been created, only the tile around the pixel is created,
+	 * so looking up pixels in a part of the map (like a robot that is tracked locally) only creates that part.
+	 * The summed up map is always created completely, since its normalisation depends on the whole map.
+	 */
+	public double getLikelihood(boolean lowestDistanceApproach, int x, int y) {
+		if (lowestDistanceApproach) {
+			double[][] probabilities = lowestDistanceLikelihoodMap;
+			return probabilities != null ? probabilities[x][y] : lowestDistanceTiles.get(x, y);
+		}
+		return likelihoodMap(false)[x][y];
+	}
+
+	/*
+	 * This function returns the likelihood of positions without any obstacle within the calculation range
+	 * in either of the two likelihood maps, which is the smallest likelihood in the map.
+	 */
+	public double getEmptyLikelihood(boolean lowestDistanceApproach) {
+		if (lowestDistanceApproach) {
+			return lowestDistanceTiles.getEmptyLikelihood();
+		}
+		double[][] probabilities = likelihoodMap(false);
+		synchronized (this) {
+			if (summedUpEmptyLikelihood == 0) {
+				double min = Double.MAX_VALUE;
+				for (int i = 0; i < X; i++) {
+					for (int j = 0; j < Y; j++) {
+						min = Math.min(min, probabilities[i][j]);
+					}
+				}
+				summedUpEmptyLikelihood = min;
+			}
+			return summedUpEmptyLikelihood;
+		}
+	}
+
 	/*
 	 * This function simply loads the map file according to the address in the constant 
 	 */
-	private BufferedImage loadMap() {
+	private static BufferedImage loadMap() {
 		BufferedImage map = null;
 		try {
 			map = ImageIO
@@ -71,14 +218,98 @@ public class PositionFinder {
 		return map;
 	}
 
+	/*
+	 * This function sets the number of threads used by the pose search in generateMap.
+	 * With a parallelism of 1 (the default) the search runs on the calling thread.
+	 * A pool created by a previous call is shut down, a pool given to setPool is left running.
+	 */
+	public synchronized void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1");
+		}
+		replacePool(parallelism > 1 ? new ForkJoinPool(parallelism) : null, true);
+	}
+
+	/*
+	 * This function lets the pose search in generateMap run in the given pool,
+	 * which may be shared with other position finders and is never shut down by this one.
+	 * Null runs the search on the calling thread.
+	 */
+	public synchronized void setPool(ForkJoinPool pool) {
+		replacePool(pool, false);
+	}
+
+	/*
+	 * This function replaces the pool and shuts down the previous one, if it has been created by setParallelism.
+	 * Searches already running in the previous pool are finished before it terminates.
+	 */
+	private void replacePool(ForkJoinPool pool, boolean owned) {
+		ForkJoinPool previous = this.pool;
+		boolean ownedPrevious = ownsPool;
+		this.pool = pool;
+		ownsPool = owned && pool != null;
+		if (ownedPrevious && previous != null && previous != pool) {
+			previous.shutdown();
+		}
+	}
+
+	/*
+	 * This function restricts all pose searches to the positions of the given candidate index of the map,
+	 * e.g. to the positions a robot of a certain radius can reach. By default all free positions are considered.
+	 * Positions that are not candidates get the lowest likelihood in the grids of generateMap.
+	 */
+	public void setCandidates(CandidateIndex candidates) {
+		if (candidates.getGrid() != grid) {
+			throw new IllegalArgumentException("The candidates belong to another map");
+		}
+		this.candidates = candidates;
+	}
+
+	public CandidateIndex getCandidates() {
+		return candidates;
+	}
+
+	/*
+	 * This function sets the angles the beams of the measurements cover to the ones of the given laser,
+	 * from -angleRange to angleRange degrees in steps of angleStep degrees, so scans with another number of beams
+	 * than the assignment are searched with their true geometry.
+	 * By default the beams cover the angles from -135 to 135 degrees in steps of 5 degrees.
+	 */
+	public synchronized void setScanAngles(ModelParameters parameters) {
+		if (parameters.getAngleRange() < 0 || parameters.getAngleStep() < 1) {
+			throw new IllegalArgumentException("Invalid angles " + parameters.getAngleRange() + " and "
+					+ parameters.getAngleStep());
+		}
+		firstBeamAngle = -parameters.getAngleRange();
+		beamStep = parameters.getAngleStep();
+	}
+
+	/*
+	 * These functions return the angle of the first beam of a scan and the angle between neighbouring beams
+	 * in degrees (see setScanAngles).
+	 */
+	public synchronized int getFirstBeamAngle() {
+		return firstBeamAngle;
+	}
+	public synchronized int getBeamStep() {
+		return beamStep;
+	}
+
+	/*
+	 * This function returns the occupancy grid of the map.
+	 */
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
 	/*
 	 * These functions return either of the two likelihood maps, so they can be plotted.
 	 */
 	public double[][] getSummedUpLikelihoodMap() {
-		return summedUpLikelihoodMap;
+		return likelihoodMap(false);
 	}
 	public double[][] getLowestDistanceLikelihoodMap() {
-		return lowestDistanceLikelihoodMap;
+		return likelihoodMap(true);
 	}
 
 	/*
@@ -87,41 +318,31 @@ public class PositionFinder {
 	 * To reduce the running time there is a gaussian square created in the beginning according
 	 * to the calculation range in pixel, that includes the gaussian probabilities of all pixels
 	 * within the calculation range around any black pixel (obstacle).
-	 * Thanks to this gaussian square, the gaussian is only calculated a constant number of times;
-	 * Every time an black pixel (obstacle) is encountered in the map, the values from the
-	 * gaussian square are simply added to all surrounding pixels.
+	 * Adding the values from the gaussian square to all pixels surrounding every black pixel (obstacle)
+	 * is the convolution of the obstacles in the map with the gaussian square, so the sums are computed
+	 * by the convolution engine, which chooses the cheapest way to do so depending on the number
+	 * of obstacles and the size of the gaussian square.
 	 * After that, all pixels still with zero probability get the minimal probability assigned as a random factor.
 	 * In the very end, the resulting probabilities are normalized in relation to
 	 * the maximum probability encountered during the generation of the probability grid.
 	 * This results in a grid of probabilities in the interval from 0.0 to 1.0;
 	 */
 	private double[][] generateMapSummingUp() {
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.FIELD_BUILD);
 		double[][] gaussianSquare = gaussianSquare();
 
-		double maxLikelihood = 0.0;
-		double[][] probabilities = new double[X][Y];
-		for (int i = 0; i < X; i++) {
-			for (int j = 0; j < Y; j++) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-					for (int k = i - PIXEL_CALCULATION_RANGE;
-							k <= i + PIXEL_CALCULATION_RANGE; k++) {
-						for (int l = j - PIXEL_CALCULATION_RANGE;
-								l <= j + PIXEL_CALCULATION_RANGE; l++) {
-							if (k >= 0 && k < X && l >= 0 && l < Y) {
-								probabilities[k][l] += gaussianSquare
-										[i - k + PIXEL_CALCULATION_RANGE]
-										[j - l + PIXEL_CALCULATION_RANGE];
-								if (probabilities[k][l] > maxLikelihood) {
-									maxLikelihood = probabilities[k][l];
-								}
-							}
-						}
-					}
-				}
-			}
+		double[][] obstacles = new double[X][Y];
+		for (int obstacle : grid.getObstacleCells()) {
+			obstacles[grid.getX(obstacle)][grid.getY(obstacle)] = 1.0;
 		}
+		double[][] probabilities = Convolution.convolve(obstacles, gaussianSquare);
+
+		double maxLikelihood = 0.0;
 		for(int i=0;i<X;i++){
 			for(int j=0;j<Y;j++){
+				if (probabilities[i][j] > maxLikelihood) {
+					maxLikelihood = probabilities[i][j];
+				}
 				if(probabilities[i][j] == 0){
 					probabilities[i][j] = MIN_PROBABILITY;
 				}
@@ -129,6 +350,8 @@ public class PositionFinder {
 		}
 
 		probabilities = normaliseProbabilities(probabilities, maxLikelihood);
+		Metrics.add(Metrics.Counter.CELLS, (long) X * Y);
+		timer.stop((long) X * Y);
 
 		return probabilities;
 	}
@@ -136,58 +359,42 @@ public class PositionFinder {
 	/*
 	 * This function creates a normalized grid of probabilities
 	 * using the method to search for the lowest distance to an obstacle.
-	 * To reduce the running time there is a gaussian square created in the beginning according
-	 * to the calculation range in pixel, that includes the gaussian probabilities of all pixels
-	 * within the calculation range around any black pixel (obstacle).
-	 * Thanks to this gaussian square, the gaussian is only calculated a constant number of times;
-	 * Every time an black pixel (obstacle) is encountered in the map, the probability values for
-	 * all pixels around the grid, are set to the according value from the gaussian square if there
-	 * is not already a higher probability set. A higher set probability would have meant, that another
-	 * obstacle has been encountered before, which is nearer to that pixel.
-	 * After that, all pixels still with zero probability get the minimal probability assigned as a random factor.
+	 * Instead of stamping the gaussian square around every black pixel (obstacle), which gets
+	 * slower the more obstacles there are and the bigger the calculation range is,
+	 * the exact euclidean distance transform of the map is computed first. It contains the squared
+	 * distance in pixels from every pixel to its nearest obstacle and takes linear time in the size of the map.
+	 * The probability of a pixel is then simply looked up in a table of gaussian probabilities per squared distance,
+	 * which is taken from the gaussian square, so the values are the same as the ones the stamping would produce.
+	 * All pixels whose nearest obstacle is outside of the calculation range get the minimal probability assigned as a random factor.
 	 * In the very end, the resulting probabilities are normalized in relation to
-	 * the maximum probability encountered during the generation of the probability grid.
+	 * the maximum probability, which is the probability of an obstacle pixel itself.
 	 * This results in a grid of probabilities in the interval from 0.0 to 1.0;
+	 * The computation is shared with the tiled likelihood map, which does the same for single tiles.
 	 */
 	private double[][] generateMapLowestDistance() {
-		double maxLikelihood = 0.0;
-		double[][] gaussianSquare = gaussianSquare();
+		return lowestDistanceTiles.toArray();
+	}
 
-		double[][] probabilities = new double[X][Y];
-		for (int i = 0; i < X; i++) {
-			for (int j = 0; j < Y; j++) {
-				if (map.getRGB(i, j) == Color.BLACK.getRGB()) {
-					for (int k = i - PIXEL_CALCULATION_RANGE;
-							k <= i + PIXEL_CALCULATION_RANGE; k++) {
-						for (int l = j - PIXEL_CALCULATION_RANGE;
-								l <= j + PIXEL_CALCULATION_RANGE; l++) {
-							if (k >= 0 && k < X && l >= 0 && l < Y) {
-								double newProbability = gaussianSquare
-										[i - k + PIXEL_CALCULATION_RANGE]
-										[j - l + PIXEL_CALCULATION_RANGE];
-								if(probabilities[k][l] < newProbability){
-									probabilities[k][l] = newProbability;
-								}
-								if (probabilities[k][l] > maxLikelihood) {
-									maxLikelihood = probabilities[k][l];
-								}
-							}
-						}
-					}
-				}
-			}
-		}
-		for(int i=0;i<X;i++){
-			for(int j=0;j<Y;j++){
-				if(probabilities[i][j] == 0){
-					probabilities[i][j] = MIN_PROBABILITY;
+	/*
+	 * This function rearranges a gaussian square into a table, that contains the gaussian
+	 * probability for every squared distance in pixels to the middle of the square.
+	 * If several positions of the square have the same squared distance, the highest value is used.
+	 * Squared distances, that do not occur within the square, or that lie outside of the
+	 * calculation range have the probability 0.0.
+	 */
+	private double[] gaussianBySquaredDistance(double[][] gaussianSquare) {
+		double[] gaussianBySquaredDistance =
+				new double[2 * PIXEL_CALCULATION_RANGE * PIXEL_CALCULATION_RANGE + 1];
+		for (int i = 0; i < gaussianSquare.length; i++) {
+			for (int j = 0; j < gaussianSquare[i].length; j++) {
+				int squaredDistance = (i - PIXEL_CALCULATION_RANGE) * (i - PIXEL_CALCULATION_RANGE)
+						+ (j - PIXEL_CALCULATION_RANGE) * (j - PIXEL_CALCULATION_RANGE);
+				if (gaussianSquare[i][j] > gaussianBySquaredDistance[squaredDistance]) {
+					gaussianBySquaredDistance[squaredDistance] = gaussianSquare[i][j];
 				}
 			}
 		}
-
-		probabilities = normaliseProbabilities(probabilities, maxLikelihood);
-
-		return probabilities;
+		return gaussianBySquaredDistance;
 	}
 	
 	/*
@@ -237,8 +444,10 @@ public class PositionFinder {
 	 * For every position in the grid, it denotes the highest probability of
 	 * all possible robot orientations at that position.
 	 * It first determines, which map to use according to the given boolean.
-	 * The maps have been generated at the initialization of the position finder and can be used
+	 * The maps are created at their first use (or loaded from the cache) and can be used
 	 * again and again for any measurement to come.
+	 * The measurements are rotated once into every considered orientation, which gives the
+	 * pixel offsets of all endpoints relative to the robot position (see BeamOffsetTable).
 	 * Then for each position of the map, the highest likelihood of all different orientations
 	 * is determined with the following method:
 	 * For each value of measurement array, the according endpoint pixel is determined and the according
@@ -247,94 +456,610 @@ public class PositionFinder {
 	 * is added since the max measurement very likely in general.
 	 * In the end, the probabilities are normalized again to use to the range of 0.0 to 1.0,
 	 * mainly to have the resulting picture utilize as much as possible of the grey range.
+	 * If a parallelism or pool has been set, the columns of the map are split into tasks that
+	 * are scored in parallel. Every column is written by exactly one task and the maximum
+	 * likelihood is reduced from the maxima of the tasks, so the result does not depend on the parallelism.
 	 */
 	public double[][] generateMap(double[] measurements, boolean lowestDistanceApproach) {
-		double[][] probabilities;
-		if (lowestDistanceApproach) {
-			probabilities = lowestDistanceLikelihoodMap;
-		} else {
-			probabilities = summedUpLikelihoodMap;
-		}
+		final double[][] probabilities = likelihoodMap(lowestDistanceApproach);
+		final BeamOffsetTable offsets = beamOffsets(measurements);
 
-		double[][] likelihoods = new double[X][Y];
-		double maxLikelihood=0.0;
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.SEARCH);
+		final CandidateIndex candidates = this.candidates;
+		final double[][] likelihoods = new double[X][Y];
+		final LongAdder scoredPoses = new LongAdder();
+		double maxLikelihood = forAllColumns(new ColumnWork<Double>() {
+			public Double scoreColumns(int from, int to) {
+				return PositionFinder.this.scoreColumns(probabilities, candidates, offsets, likelihoods, scoredPoses,
+						from, to);
+			}
+			public Double combine(Double left, Double right) {
+				return Math.max(left, right);
+			}
+		});
+		normaliseProbabilities(likelihoods, maxLikelihood);
+		timer.stop(scoredPoses.sum());
 		
-		for(int i=0;i<X;i++){
-			System.out.println(i);
-			for(int j=0;j<Y;j++){
-				if(map.getRGB(i, j) == Color.WHITE.getRGB()){
-					for(int k=0;k<THETA;k=k+THETA_STEPS){
-						double likelihood = 0.0;
-						for(int l=0;l<measurements.length;l++){
-							int angle = k-135+l*5;
-							double distance = measurements[l];
-							int endpointX = findPixelX(i,angle,distance);
-							int endpointY = findPixelY(j,angle,distance);
-							if(endpointX<0 || endpointX>=X || endpointY<0 || endpointY>=Y || probabilities[endpointX][endpointY]==0){
-								likelihood += MIN_PROBABILITY;
-							}else{
-								likelihood += probabilities[endpointX][endpointY];
-							}
-							if(distance == MAX_MEASUREMENT){
-								likelihood += MAX_MEASUREMENT_PROBABILITY;
-							}
+		return likelihoods;
+	}
+
+	/*
+	 * This function scores the columns from (inclusive) to (exclusive) and writes the highest likelihood
+	 * of all orientations at every candidate position into the likelihood grid.
+	 * Columns without any candidate are not scored at all, the others at every position from their first
+	 * to their last candidate, including the positions in between that are no candidates.
+	 * It adds the number of scored poses to scoredPoses and returns the maximum likelihood of those columns.
+	 */
+	private double scoreColumns(double[][] probabilities, CandidateIndex candidates, BeamOffsetTable offsets,
+			double[][] likelihoods, LongAdder scoredPoses, int from, int to) {
+		double maxLikelihood = 0.0;
+		double[] columnLikelihoods = new double[Y];
+		int scoredPositions = 0;
+		for(int i=from;i<to;i++){
+			int first = candidates.columnStart(i);
+			int last = candidates.columnStart(i + 1);
+			if(first==last){
+				continue;
+			}
+			int top = candidates.getY(first);
+			int bottom = candidates.getY(last-1)+1;
+			scoredPositions += bottom-top;
+			double[] column = likelihoods[i];
+			for(int k=0;k<offsets.getHeadings();k++){
+				scoreColumn(probabilities, offsets, k, i, top, bottom, columnLikelihoods);
+				for(int c=first;c<last;c++){
+					int j = candidates.getY(c);
+					if(columnLikelihoods[j]>column[j]){
+						column[j] = columnLikelihoods[j];
+					}
+				}
+			}
+			for(int c=first;c<last;c++){
+				int j = candidates.getY(c);
+				if(column[j]>maxLikelihood){
+					maxLikelihood = column[j];
+				}
+			}
+		}
+		scoredPoses.add(countPoses(offsets, scoredPositions));
+		return maxLikelihood;
+	}
+
+	/*
+	 * This function returns the best robot pose for the given measurements
+	 * by scoring every orientation at every candidate position (see setCandidates) of the map, the same way generateMap does.
+	 * If several poses have the same likelihood, the first one in the order of the search is returned.
+	 * If the map does not have any candidate position, null is returned.
+	 */
+	public ScoredPosition findBestPose(double[] measurements, boolean lowestDistanceApproach) {
+		List<ScoredPosition> best = findBestPoses(measurements, lowestDistanceApproach, 1);
+		return best.isEmpty() ? null : best.get(0);
+	}
+
+	/*
+	 * This function returns the k best robot poses for the given measurements, the best one first.
+	 * Every orientation at every candidate position of the map is scored the same way as in generateMap,
+	 * but instead of filling a grid of the size of the map, the scores are streamed into a collection
+	 * which only keeps the k best poses including their orientations.
+	 * Poses that cannot get into the collection anymore are rejected early, mostly after a few beams
+	 * (see collectColumns), so only a small part of the poses is scored with all beams.
+	 * If a parallelism or pool has been set, every task collects its own k best poses
+	 * and the collections are merged, which gives the same result as the sequential search.
+	 */
+	public List<ScoredPosition> findBestPoses(double[] measurements, boolean lowestDistanceApproach, final int k) {
+		final double[][] probabilities = likelihoodMap(lowestDistanceApproach);
+		final LikelihoodPyramid pyramid = getPyramid(lowestDistanceApproach);
+		final CandidateIndex candidates = this.candidates;
+		final BeamOffsetTable offsets = beamOffsets(measurements);
+
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.SEARCH);
+		final LongAdder scoredPoses = new LongAdder();
+		TopKPositions best = forAllColumns(new ColumnWork<TopKPositions>() {
+			public TopKPositions scoreColumns(int from, int to) {
+				TopKPositions best = new TopKPositions(k);
+				collectColumns(probabilities, pyramid, candidates, offsets, best, scoredPoses, from, to);
+				return best;
+			}
+			public TopKPositions combine(TopKPositions left, TopKPositions right) {
+				left.merge(right);
+				return left;
+			}
+		});
+		timer.stop(scoredPoses.sum());
+		return best.getPositions();
+	}
+
+	/*
+	 * This function returns the k best robot poses for each of several measurements,
+	 * searched one after the other by findBestPoses (each of them with the parallelism that has been set).
+	 * Only the k best poses of every measurement are kept, so it also suits large batches of measurements.
+	 */
+	public List<List<ScoredPosition>> findBestPoses(double[][] measurements, boolean lowestDistanceApproach, int k) {
+		List<List<ScoredPosition>> positions = new ArrayList<List<ScoredPosition>>(measurements.length);
+		for (double[] measurement : measurements) {
+			positions.add(findBestPoses(measurement, lowestDistanceApproach, k));
+		}
+		return positions;
+	}
+
+	/*
+	 * This function scores all orientations at all candidate positions in the columns
+	 * from (inclusive) to (exclusive) and offers them to the collection of best poses.
+	 * Once the collection is full, a pose only has to be scored if it can still beat the worst pose collected,
+	 * so the poses are scored in a cascade with early rejection:
+	 * The columns are divided into blocks of CASCADE_BLOCK_SIZE x CASCADE_BLOCK_SIZE positions, blocks without
+	 * candidates are skipped. For a block
+	 * and an orientation, the highest likelihood of every beam within the block is looked up in the max-pooled
+	 * pyramid of the likelihood map (as in the hierarchical search), and the block is rejected as a whole
+	 * if the sum of those cannot beat the worst pose. Otherwise every pose of the block looks up its beams
+	 * in an order that spreads them over the whole scan (see BeamCascade) and is rejected as soon as
+	 * the likelihood of the beams so far plus the highest likelihood of the remaining beams in the block cannot
+	 * beat the worst pose. Only the poses that survive all beams are scored exactly by score,
+	 * so the collected poses and their scores are the same as without the cascade.
+	 * The number of those poses is added to scoredPoses.
+	 */
+	private void collectColumns(double[][] probabilities, LikelihoodPyramid pyramid, CandidateIndex candidates,
+			BeamOffsetTable table, TopKPositions best, LongAdder scoredPoses, int from, int to) {
+		BeamCascade cascade = new BeamCascade(table);
+		// the range of candidates of every column of the current block in the list of candidates
+		int[] blockFirst = new int[CASCADE_BLOCK_SIZE];
+		int[] blockLast = new int[CASCADE_BLOCK_SIZE];
+		long scored = 0;
+		long beams = 0;
+		long rejectedBlocks = 0;
+		for (int left = from; left < to; left += CASCADE_BLOCK_SIZE) {
+			int right = Math.min(left + CASCADE_BLOCK_SIZE, to);
+			for (int i = left; i < right; i++) {
+				blockLast[i - left] = candidates.columnStart(i);
+			}
+			for (int top = 0; top < Y; top += CASCADE_BLOCK_SIZE) {
+				int bottom = Math.min(top + CASCADE_BLOCK_SIZE, Y);
+				int blockCandidates = 0;
+				for (int i = left; i < right; i++) {
+					int c = blockLast[i - left];
+					blockFirst[i - left] = c;
+					while (c < candidates.columnStart(i + 1) && candidates.getY(c) < bottom) {
+						c++;
+					}
+					blockLast[i - left] = c;
+					blockCandidates += c - blockFirst[i - left];
+				}
+				if (blockCandidates == 0) {
+					continue;
+				}
+				for (int k = 0; k < table.getHeadings(); k++) {
+					boolean bounded = best.isFull();
+					if (bounded) {
+						cascade.bound(pyramid, k, left, top, right, bottom);
+						if (cascade.remaining[0] < best.getWorst().getScore() - BOUND_TOLERANCE) {
+							rejectedBlocks++;
+							continue;
 						}
-						if(likelihood>likelihoods[i][j]){
-							likelihoods[i][j] = likelihood;
+					}
+					int theta = table.getTheta(k);
+					for (int i = left; i < right; i++) {
+						for (int c = blockFirst[i - left]; c < blockLast[i - left]; c++) {
+							int j = candidates.getY(c);
+							if (bounded) {
+								double threshold = best.getWorst().getScore() - BOUND_TOLERANCE;
+								double likelihood = 0.0;
+								int m = 0;
+								while (m < cascade.order.length && likelihood + cascade.remaining[m] >= threshold) {
+									likelihood += beamLikelihood(probabilities, table, k, cascade.order[m], i, j);
+									m++;
+								}
+								beams += m;
+								if (likelihood + cascade.remaining[m] < threshold) {
+									continue;
+								}
+							}
+							best.offer(score(probabilities, table, k, i, j), i, j, theta);
+							scored++;
+							beams += table.getBeams();
 						}
 					}
 				}
 			}
 		}
-		for(int i=0;i<X;i++){
-			System.out.println(i);
-			for(int j=0;j<Y;j++){
-				if(likelihoods[i][j]>maxLikelihood){
-					maxLikelihood = likelihoods[i][j];
+		scoredPoses.add(scored);
+		Metrics.add(Metrics.Counter.POSES, scored);
+		Metrics.add(Metrics.Counter.BEAMS, beams);
+		Metrics.add(Metrics.Counter.BLOCKS, rejectedBlocks);
+	}
+
+	/*
+	 * This class describes the cascade in which the beams of a scan are looked up by the exhaustive search.
+	 * Neighbouring beams mostly end near the same obstacles, so the beams are ordered by the stride
+	 * between them, coarse to fine (e.g. 0, 32, 16, 48, 8, 24, ...): every prefix of the order
+	 * spreads over the whole scan and tells as much as possible about the pose.
+	 * For a block of positions and an orientation, it contains for every position in the order
+	 * the highest likelihood the beams from that position on can add to the score of a pose in the block.
+	 */
+	private static class BeamCascade {
+
+		private final BeamOffsetTable offsets;
+		private final int[] order;
+		private final double[] remaining;
+
+		BeamCascade(BeamOffsetTable offsets) {
+			this.offsets = offsets;
+			int beams = offsets.getBeams();
+			order = new int[beams];
+			boolean[] added = new boolean[beams];
+			int m = 0;
+			for (int stride = Integer.highestOneBit(Math.max(1, beams)); stride > 0; stride /= 2) {
+				for (int l = 0; l < beams; l += stride) {
+					if (!added[l]) {
+						added[l] = true;
+						order[m++] = l;
+					}
 				}
 			}
+			remaining = new double[beams + 1];
+		}
+
+		/*
+		 * This function determines the highest likelihoods of the beams for all positions
+		 * of the block [left, right) x [top, bottom) with the given heading.
+		 * Like in the bound of the hierarchical search, every beam ends within a rectangle of the size of the block
+		 * (extended by a pixel where the endpoint depends on the position), whose maximum is looked up in the pyramid.
+		 */
+		void bound(LikelihoodPyramid pyramid, int heading, int left, int top, int right, int bottom) {
+			for (int m = order.length - 1; m >= 0; m--) {
+				int l = order[m];
+				double likelihood = pyramid.max(left + offsets.minOffsetX(heading, l), top + offsets.minOffsetY(heading, l),
+						right - 1 + offsets.maxOffsetX(heading, l), bottom - 1 + offsets.maxOffsetY(heading, l));
+				if (offsets.isMaxMeasurement(l)) {
+					likelihood += MAX_MEASUREMENT_PROBABILITY;
+				}
+				remaining[m] = remaining[m + 1] + likelihood;
+			}
 		}
-		normaliseProbabilities(likelihoods, maxLikelihood);
-		
-		return likelihoods;
+	}
+
+	/*
+	 * This function counts the poses and beams scored at the given number of positions (see Metrics)
+	 * and returns the number of poses. Every heading is scored with all beams at every one of the positions.
+	 */
+	private long countPoses(BeamOffsetTable offsets, int positions) {
+		long poses = (long) offsets.getHeadings() * positions;
+		Metrics.add(Metrics.Counter.POSES, poses);
+		Metrics.add(Metrics.Counter.BEAMS, poses * offsets.getBeams());
+		return poses;
+	}
+
+	/*
+	 * This interface describes the work of a pose search over a range of columns of the map,
+	 * and how the results of two neighbouring ranges are combined.
+	 */
+	private interface ColumnWork<T> {
+		T scoreColumns(int from, int to);
+		T combine(T left, T right);
+	}
+
+	/*
+	 * This function runs the work over all columns of the map.
+	 * If a parallelism or pool has been set, the columns are split into tasks that are run in parallel.
+	 * Every column is handled by exactly one task and the results are always combined in the same way,
+	 * so the result does not depend on the parallelism.
+	 */
+	private <T> T forAllColumns(ColumnWork<T> work) {
+		ForkJoinPool pool = this.pool;
+		if (pool == null) {
+			return work.scoreColumns(0, X);
+		}
+		return pool.invoke(new ColumnTask<T>(work, 0, X));
+	}
+
+	/*
+	 * This class describes a part of the parallel pose search over a range of columns.
+	 * Large ranges are split in two halves until they are small enough to be scored directly.
+	 */
+	private static class ColumnTask<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ColumnWork<T> work;
+		private final int from;
+		private final int to;
+
+		ColumnTask(ColumnWork<T> work, int from, int to) {
+			this.work = work;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected T compute() {
+			if (to - from <= COLUMNS_PER_TASK) {
+				return work.scoreColumns(from, to);
+			}
+			int middle = (from + to) >>> 1;
+			ColumnTask<T> left = new ColumnTask<T>(work, from, middle);
+			ColumnTask<T> right = new ColumnTask<T>(work, middle, to);
+			left.fork();
+			T rightResult = right.compute();
+			return work.combine(left.join(), rightResult);
+		}
+	}
+
+	/*
+	 * This function returns the same best robot pose as findBestPose using a branch and bound search.
+	 * If the map does not have any candidate position, null is returned.
+	 */
+	public ScoredPosition findBestPoseHierarchical(double[] measurements, boolean lowestDistanceApproach) {
+		List<ScoredPosition> best = findBestPosesHierarchical(measurements, lowestDistanceApproach, 1);
+		return best.isEmpty() ? null : best.get(0);
+	}
+
+	/*
+	 * This function returns the same k best robot poses as findBestPoses using a branch and bound search.
+	 * The map is divided into square blocks of positions of the size of the coarsest pyramid level.
+	 * For a block and an orientation, the endpoints of every beam lie within a rectangle of the size of the block,
+	 * so the maximum likelihood in that rectangle (looked up in the max-pooled pyramid of the likelihood map)
+	 * bounds the contribution of the beam for all positions of the block.
+	 * The blocks are refined into their four quarters in the order of their bounds, best first,
+	 * until single positions are reached, which are scored exactly.
+	 * A block is skipped as soon as its bound cannot beat the k-th best pose found so far,
+	 * so only the promising parts of the map are ever looked at in full resolution.
+	 * Blocks without any candidate position are never bounded.
+	 */
+	public List<ScoredPosition> findBestPosesHierarchical(double[] measurements, boolean lowestDistanceApproach, int k) {
+		double[][] probabilities = likelihoodMap(lowestDistanceApproach);
+		LikelihoodPyramid pyramid = getPyramid(lowestDistanceApproach);
+		CandidateIndex index = candidates;
+		BeamOffsetTable offsets = beamOffsets(measurements);
+
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.SEARCH);
+		int scored = 0;
+		int bounded = 0;
+		int level = pyramid.getLevelCount() - 1;
+		int size = 1 << level;
+		List<Block> candidates = new ArrayList<Block>();
+		for (int x = 0; x < X; x += size) {
+			for (int y = 0; y < Y; y += size) {
+				if (index.count(x, y, x + size, y + size) == 0) {
+					continue;
+				}
+				for (int h = 0; h < offsets.getHeadings(); h++) {
+					candidates.add(new Block(x, y, level, h, bound(pyramid, offsets, h, x, y, size)));
+					bounded++;
+				}
+			}
+		}
+		Deque<Block> stack = new ArrayDeque<Block>();
+		push(stack, candidates);
+
+		TopKPositions best = new TopKPositions(k);
+		List<Block> children = new ArrayList<Block>(4);
+		while (!stack.isEmpty()) {
+			Block block = stack.pop();
+			int theta = offsets.getTheta(block.heading);
+			// no pose of the block can come before its first pose, so the bound is checked for that one
+			if (!best.accepts(block.bound, block.x, block.y, theta)) {
+				continue;
+			}
+			if (block.level == 0) {
+				best.offer(score(probabilities, offsets, block.heading, block.x, block.y), block.x, block.y, theta);
+				scored++;
+				continue;
+			}
+			int half = 1 << (block.level - 1);
+			children.clear();
+			for (int x = block.x; x < block.x + 2 * half && x < X; x += half) {
+				for (int y = block.y; y < block.y + 2 * half && y < Y; y += half) {
+					if (index.count(x, y, x + half, y + half) == 0) {
+						continue;
+					}
+					children.add(new Block(x, y, block.level - 1, block.heading,
+							bound(pyramid, offsets, block.heading, x, y, half)));
+					bounded++;
+				}
+			}
+			push(stack, children);
+		}
+		Metrics.add(Metrics.Counter.POSES, scored);
+		Metrics.add(Metrics.Counter.BEAMS, (long) scored * offsets.getBeams());
+		Metrics.add(Metrics.Counter.BLOCKS, bounded);
+		timer.stop(scored);
+		return best.getPositions();
+	}
+
+	/*
+	 * This function pushes the blocks onto the stack in such a way,
+	 * that the block with the highest bound is on top.
+	 */
+	private void push(Deque<Block> stack, List<Block> blocks) {
+		Collections.sort(blocks);
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			stack.push(blocks.get(i));
+		}
+	}
+
+	/*
+	 * This function returns an upper bound of the likelihood of all positions in the block
+	 * of the given size at (x, y) with the given heading of the beam offset table.
+	 * The values are accumulated in the same order as in the exact score, so the bound is never smaller.
+	 */
+	private double bound(LikelihoodPyramid pyramid, BeamOffsetTable offsets, int heading, int x, int y, int size) {
+		int lastX = Math.min(x + size, X) - 1;
+		int lastY = Math.min(y + size, Y) - 1;
+		double likelihood = 0.0;
+		for (int l = 0; l < offsets.getBeams(); l++) {
+			likelihood += pyramid.max(x + offsets.minOffsetX(heading, l), y + offsets.minOffsetY(heading, l),
+					lastX + offsets.maxOffsetX(heading, l), lastY + offsets.maxOffsetY(heading, l));
+			if (offsets.isMaxMeasurement(l)) {
+				likelihood += MAX_MEASUREMENT_PROBABILITY;
+			}
+		}
+		return likelihood;
+	}
+
+	/*
+	 * This function returns the max-pooled pyramid of either of the two likelihood maps.
+	 * The pyramid is created the first time it is needed.
+	 */
+	private synchronized LikelihoodPyramid getPyramid(boolean lowestDistanceApproach) {
+		if (lowestDistanceApproach) {
+			if (lowestDistancePyramid == null) {
+				lowestDistancePyramid = new LikelihoodPyramid(likelihoodMap(true), PYRAMID_LEVELS, MIN_PROBABILITY);
+			}
+			return lowestDistancePyramid;
+		}
+		if (summedUpPyramid == null) {
+			summedUpPyramid = new LikelihoodPyramid(likelihoodMap(false), PYRAMID_LEVELS, MIN_PROBABILITY);
+		}
+		return summedUpPyramid;
+	}
+
+	/*
+	 * This class describes a square block of robot positions with a single orientation
+	 * and the upper bound of their likelihoods. Blocks are ordered by their bounds, highest first.
+	 */
+	private static class Block implements Comparable<Block> {
+
+		private final int x;
+		private final int y;
+		private final int level;
+		private final int heading;
+		private final double bound;
+
+		Block(int x, int y, int level, int heading, double bound) {
+			this.x = x;
+			this.y = y;
+			this.level = level;
+			this.heading = heading;
+			this.bound = bound;
+		}
+
+		public int compareTo(Block other) {
+			return Double.compare(other.bound, bound);
+		}
+	}
+
+	/*
+	 * These functions rotate the measurements into all orientations considered by the pose search.
+	 * The beams cover the angles set by setScanAngles.
+	 */
+	synchronized BeamOffsetTable beamOffsets(double[] measurements) {
+		return new BeamOffsetTable(measurements, THETA, THETA_STEPS, firstBeamAngle, beamStep, MAX_MEASUREMENT);
+	}
+
+	/*
+	 * This function returns the accumulated likelihoods of the measurements for a robot
+	 * at the positions top (inclusive) to bottom (exclusive) of the column x with the given heading
+	 * of the beam offset table. The other values of the likelihoods are left as they are.
+	 * The same values as in score are accumulated in the same order, but one beam after the other
+	 * for the whole range. This way the likelihoods of a beam are read one after the other
+	 * from a single column of the likelihood map, which keeps them in the cache.
+	 */
+	private void scoreColumn(double[][] probabilities, BeamOffsetTable offsets, int heading, int x,
+			int top, int bottom, double[] likelihoods) {
+		Arrays.fill(likelihoods, top, bottom, 0.0);
+		for(int l=0;l<offsets.getBeams();l++){
+			if(offsets.isExact(heading, l)){
+				int endpointX = x+offsets.minOffsetX(heading, l);
+				int offsetY = offsets.minOffsetY(heading, l);
+				// the endpoints of the positions from first to last (exclusive) lie within the map
+				int first = endpointX<0 || endpointX>=X ? bottom : Math.min(bottom, Math.max(top, -offsetY));
+				int last = endpointX<0 || endpointX>=X ? bottom : Math.min(bottom, Y-offsetY);
+				for(int j=top;j<first;j++){
+					likelihoods[j] += MIN_PROBABILITY;
+				}
+				if(first<last){
+					double[] column = probabilities[endpointX];
+					for(int j=first;j<last;j++){
+						double probability = column[j+offsetY];
+						likelihoods[j] += probability==0 ? MIN_PROBABILITY : probability;
+					}
+				}
+				for(int j=Math.max(first, last);j<bottom;j++){
+					likelihoods[j] += MIN_PROBABILITY;
+				}
+			}else{
+				for(int j=top;j<bottom;j++){
+					int endpointX = offsets.endpointX(heading, l, x);
+					int endpointY = offsets.endpointY(heading, l, j);
+					if(endpointX<0 || endpointX>=X || endpointY<0 || endpointY>=Y || probabilities[endpointX][endpointY]==0){
+						likelihoods[j] += MIN_PROBABILITY;
+					}else{
+						likelihoods[j] += probabilities[endpointX][endpointY];
+					}
+				}
+			}
+			if(offsets.isMaxMeasurement(l)){
+				for(int j=top;j<bottom;j++){
+					likelihoods[j] += MAX_MEASUREMENT_PROBABILITY;
+				}
+			}
+		}
+	}
+
+	/*
+	 * This function returns the likelihood a single beam adds to the score of a robot
+	 * in position (x, y) with the given heading of the beam offset table, the same way as in score.
+	 */
+	private double beamLikelihood(double[][] probabilities, BeamOffsetTable offsets, int heading, int l, int x, int y) {
+		int endpointX = offsets.endpointX(heading, l, x);
+		int endpointY = offsets.endpointY(heading, l, y);
+		double likelihood;
+		if (endpointX < 0 || endpointX >= X || endpointY < 0 || endpointY >= Y || probabilities[endpointX][endpointY] == 0) {
+			likelihood = MIN_PROBABILITY;
+		} else {
+			likelihood = probabilities[endpointX][endpointY];
+		}
+		if (offsets.isMaxMeasurement(l)) {
+			likelihood += MAX_MEASUREMENT_PROBABILITY;
+		}
+		return likelihood;
+	}
+
+	/*
+	 * This function returns the accumulated likelihood of the measurements for a robot
+	 * in position (x, y) with the given heading of the beam offset table.
+	 * It is the exact score all pose searches have to agree with (see PositionFinderTest).
+	 */
+	double score(double[][] probabilities, BeamOffsetTable offsets, int heading, int x, int y) {
+		double likelihood = 0.0;
+		for(int l=0;l<offsets.getBeams();l++){
+			int endpointX = offsets.endpointX(heading, l, x);
+			int endpointY = offsets.endpointY(heading, l, y);
+			if(endpointX<0 || endpointX>=X || endpointY<0 || endpointY>=Y || probabilities[endpointX][endpointY]==0){
+				likelihood += MIN_PROBABILITY;
+			}else{
+				likelihood += probabilities[endpointX][endpointY];
+			}
+			if(offsets.isMaxMeasurement(l)){
+				likelihood += MAX_MEASUREMENT_PROBABILITY;
+			}
+		}
+		return likelihood;
 	}
 	
 	/*
 	 * This function generates a greyscale picture of a probability grid.
 	 * It assumes the probability grid to have the ranges of the original map
 	 * and all probabilities to lie between 0.0 and 1.0;
+	 * The grey values are written directly into the picture (see LikelihoodRenderer),
+	 * in parallel if a parallelism or pool has been set.
 	 */
 	public BufferedImage generatePicture(double[][] probabilities){
-		BufferedImage likelihoodMap = new BufferedImage(X, Y,
-				BufferedImage.TYPE_BYTE_GRAY);
-		for (int i = 0; i < X; i++) {
-			for (int j = 0; j < Y; j++) {
-				float rgbFloat = 1 - (float) probabilities[i][j];
-				Color color = new Color(rgbFloat, rgbFloat, rgbFloat);
-				likelihoodMap.setRGB(i, j, color.getRGB());
-			}
-		}
-		return likelihoodMap;
+		return LikelihoodRenderer.render(X, Y, LikelihoodRenderer.fromArray(probabilities), pool);
 	}
 
 	/*
-	 * These two functions determine the new pixel coordinates of an endpoint
-	 * measurement of a given distance in a given direction (determined by angle).
-	 * It uses common trigonometric relations.
+	 * This function generates a greyscale picture of either of the two likelihood maps
+	 * straight from its storage: the lowest distance map is read tile by tile (see getLikelihood),
+	 * so it never has to be created as a whole for the picture.
 	 */
-	private int findPixelX(int originX, int angle, double distance){
-		double realOriginX = (originX+0.5)*0.05;
-		double radAngle = FastMath.toRadians(angle);
-		double realX = realOriginX+distance*FastMath.cos(radAngle);
-		return (int) FastMath.floor(20*realX);
-	}
-	private int findPixelY(int originY, int angle, double distance){
-		double realOriginY = (originY+0.5)*0.05;
-		double radAngle = FastMath.toRadians(angle);
-		double realY = realOriginY+distance*FastMath.sin(radAngle);
-		return (int) FastMath.floor(20*realY);
+	public BufferedImage generatePicture(final boolean lowestDistanceApproach){
+		return LikelihoodRenderer.render(X, Y, new LikelihoodRenderer.LikelihoodSource() {
+			public double getLikelihood(int x, int y) {
+				return PositionFinder.this.getLikelihood(lowestDistanceApproach, x, y);
+			}
+		}, pool);
 	}
-	
+
 	/*
 	 * This function computes the distance of two given pixels in meter
 	 * according to the assumption that 1 pixel is 0.05m*0.05m
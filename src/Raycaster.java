@@ -0,0 +1,138 @@
+import org.apache.commons.math3.util.FastMath;
+
+/*
+ * This class casts laser beams through an occupancy grid and returns the exact distance to the first obstacle.
+ * It uses the grid traversal of Amanatides and Woo: starting in the cell of the origin, the beam always steps
+ * into the neighbouring cell whose border it crosses first, so every cell along the beam is visited exactly once
+ * and no cell the beam passes through (not even the corner of one) is stepped over.
+ * The distance returned is the distance from the origin to the point where the beam enters the obstacle cell.
+ * Angles are given in degrees in the orientation of the map picture, i.e. counterclockwise with the y axis pointing down.
+ * If the distance transform of the grid is given, open space is skipped by sphere tracing: the beam jumps ahead
+ * by the clearance of its current cell, which no obstacle can be closer than, and only falls back to the
+ * cell by cell traversal near obstacles. The distances are the same as without the distance transform.
+ */
+public class Raycaster {
+
+	private static final double CELL_DIAGONAL = Math.sqrt(2);
+	// the smallest squared distance to the nearest obstacle which allows a jump of more than one cell
+	private static final int MIN_JUMP_SQUARED_DISTANCE = 6;
+
+	private final OccupancyGrid grid;
+	// the size of a cell in meters
+	private final double metersPerCell;
+	// the squared distances from every cell to its nearest obstacle in row-major order, or null
+	private final int[] squaredDistances;
+
+	public Raycaster(OccupancyGrid grid, double metersPerCell) {
+		this(grid, metersPerCell, null);
+	}
+
+	/*
+	 * This function is the constructor for sphere tracing with the given distance transform of the grid
+	 * (see DistanceTransform.squaredDistances).
+	 */
+	public Raycaster(OccupancyGrid grid, double metersPerCell, int[] squaredDistances) {
+		this.grid = grid;
+		this.metersPerCell = metersPerCell;
+		this.squaredDistances = squaredDistances;
+	}
+
+	/*
+	 * This function casts a beam from the center of the given cell and returns the distance in meters
+	 * to the first obstacle, or maxRange if there is no obstacle within maxRange.
+	 */
+	public double castRay(int cellX, int cellY, double angle, double maxRange) {
+		return castRay(cellX + 0.5, cellY + 0.5, angle, maxRange, null);
+	}
+
+	/*
+	 * This function casts a beam from the given origin (in cells, so (0.5, 0.5) is the center of the upper left cell)
+	 * and returns the distance in meters to the first obstacle, or maxRange if there is no obstacle within maxRange.
+	 * If hit is not null, the coordinates of the obstacle cell are stored in it, or (-1, -1) if there is none.
+	 * The map is surrounded by free space, so a beam that leaves the map does not hit anything anymore.
+	 * With sphere tracing, a point anywhere in a cell is at least the distance between the cell center and the nearest
+	 * obstacle center minus the diagonal of a cell away from any point of an obstacle cell, so the beam can jump
+	 * that far. Jumps shorter than a cell are not worth the restart of the traversal and are not taken.
+	 */
+	public double castRay(double originX, double originY, double angle, double maxRange, int[] hit) {
+		// the same direction always has to give the same beam, which matters for beams through cell corners
+		angle %= 360;
+		if (angle < 0) {
+			angle += 360;
+		}
+		double radAngle = FastMath.toRadians(angle);
+		double directionX = FastMath.cos(radAngle);
+		double directionY = -FastMath.sin(radAngle);
+		int x = (int) FastMath.floor(originX);
+		int y = (int) FastMath.floor(originY);
+		int stepX = directionX > 0 ? 1 : -1;
+		int stepY = directionY > 0 ? 1 : -1;
+
+		// the distance along the beam (in cells) to the next vertical and horizontal cell border
+		// and between two vertical or horizontal cell borders
+		double deltaX = directionX == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / directionX);
+		double deltaY = directionY == 0 ? Double.POSITIVE_INFINITY : Math.abs(1.0 / directionY);
+		double nextX = directionX == 0 ? Double.POSITIVE_INFINITY
+				: (directionX > 0 ? x + 1 - originX : originX - x) * deltaX;
+		double nextY = directionY == 0 ? Double.POSITIVE_INFINITY
+				: (directionY > 0 ? y + 1 - originY : originY - y) * deltaY;
+
+		double maxDistance = maxRange / metersPerCell;
+		double distance = 0.0;
+		while (distance <= maxDistance && grid.contains(x, y)) {
+			if (grid.isOccupied(x, y)) {
+				if (hit != null) {
+					hit[0] = x;
+					hit[1] = y;
+				}
+				return distance * metersPerCell;
+			}
+			double clearance = clearance(x, y);
+			if (clearance > 1) {
+				if (clearance == Double.POSITIVE_INFINITY) {
+					break;
+				}
+				distance += clearance;
+				double pointX = originX + distance * directionX;
+				double pointY = originY + distance * directionY;
+				x = (int) FastMath.floor(pointX);
+				y = (int) FastMath.floor(pointY);
+				nextX = directionX == 0 ? Double.POSITIVE_INFINITY
+						: distance + (directionX > 0 ? x + 1 - pointX : pointX - x) * deltaX;
+				nextY = directionY == 0 ? Double.POSITIVE_INFINITY
+						: distance + (directionY > 0 ? y + 1 - pointY : pointY - y) * deltaY;
+			} else if (nextX < nextY) {
+				distance = nextX;
+				nextX += deltaX;
+				x += stepX;
+			} else {
+				distance = nextY;
+				nextY += deltaY;
+				y += stepY;
+			}
+		}
+		if (hit != null) {
+			hit[0] = -1;
+			hit[1] = -1;
+		}
+		return maxRange;
+	}
+
+	/*
+	 * This function returns the distance in cells the beam can safely jump from anywhere in the given cell,
+	 * which is 0 without a distance transform and infinite if the map does not contain any obstacle.
+	 */
+	private double clearance(int x, int y) {
+		if (squaredDistances == null) {
+			return 0.0;
+		}
+		int squaredDistance = squaredDistances[grid.index(x, y)];
+		if (squaredDistance < MIN_JUMP_SQUARED_DISTANCE) {
+			return 0.0;
+		}
+		if (squaredDistance == DistanceTransform.NO_OBSTACLE) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return Math.sqrt(squaredDistance) - CELL_DIAGONAL;
+	}
+}
@@ -0,0 +1,401 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * This class simulates laser scans of the sensor model for a map.
+ * It is created once per map and sensor model parameters and never changes afterwards: every call returns
+ * new arrays and the noise is drawn from a random source given by the caller, so one simulator can be used
+ * for any number of poses and from many threads at once.
+ * The only state that is built up over time are the cumulative distributions of the noisy measurements,
+ * which are created at their first use without locking (see cumulativeDistribution), and the raycaster.
+ * The expected measurements are computed with the raycaster (see Raycaster) or looked up in a table
+ * of expected ranges (see ExpectedRangeTable). The raycaster needs the distance transform of the whole map,
+ * so it is only created when the first beam has to be cast (see getRaycaster), unless one has been given.
+ */
+public class ScanSimulator {
+
+	private final OccupancyGrid grid;
+	private final ModelParameters parameters; // a copy of the sensor model parameters
+	private volatile Raycaster raycaster; // created at its first use, unless one has been given
+	private final ExpectedRangeTable expectedRanges; // precomputed ranges of the beams, or null
+	// the cumulative distributions of the measurements per expected measurement in centimeters
+	private final AtomicReferenceArray<double[]> cumulativeDistributions;
+
+	public ScanSimulator(OccupancyGrid grid, ModelParameters parameters) {
+		this(grid, parameters, null);
+	}
+
+	/*
+	 * This function is the constructor with a table of expected ranges, which has to belong to the given grid.
+	 * The parameters are copied, so later changes of them do not affect the simulator.
+	 */
+	public ScanSimulator(OccupancyGrid grid, ModelParameters parameters, ExpectedRangeTable expectedRanges) {
+		this(grid, parameters, expectedRanges, null);
+	}
+
+	/*
+	 * This function is the constructor with the raycaster of the grid, e.g. one of another simulator of the same map,
+	 * which has to have the scale of the parameters. If it is null, the raycaster is created at its first use.
+	 */
+	public ScanSimulator(OccupancyGrid grid, ModelParameters parameters, ExpectedRangeTable expectedRanges,
+			Raycaster raycaster) {
+		this.grid = grid;
+		this.parameters = new ModelParameters(parameters.getLaserRange(), parameters.getCmPerPixel(),
+				parameters.getAngleRange(), parameters.getAngleStep(), parameters.getL(), parameters.getB(),
+				parameters.getzSmall());
+		this.raycaster = raycaster;
+		this.expectedRanges = expectedRanges;
+		this.cumulativeDistributions = new AtomicReferenceArray<double[]>(parameters.getLaserRange() * 100 + 2);
+	}
+
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
+	/*
+	 * This function returns the raycaster of the grid, which is created with the distance transform
+	 * of the grid when it is needed for the first time.
+	 */
+	public Raycaster getRaycaster() {
+		Raycaster raycaster = this.raycaster;
+		if (raycaster != null) {
+			return raycaster;
+		}
+		synchronized (this) {
+			if (this.raycaster == null) {
+				this.raycaster = new Raycaster(grid, parameters.getCmPerPixel() * 0.01,
+						DistanceTransform.squaredDistances(grid));
+			}
+			return this.raycaster;
+		}
+	}
+
+	/*
+	 * This function returns the raycaster if it has been created or given already, otherwise null.
+	 */
+	Raycaster createdRaycaster() {
+		return raycaster;
+	}
+
+	public ExpectedRangeTable getExpectedRangeTable() {
+		return expectedRanges;
+	}
+
+	/*
+	 * This function returns the number of beams of a scan.
+	 */
+	public int getBeams() {
+		return ((2 * parameters.getAngleRange()) / parameters.getAngleStep()) + 1;
+	}
+
+	/*
+	 * This function computes the expected measurements of all beams at the given position,
+	 * either from the table of expected ranges or with the raycaster.
+	 */
+	public double[] expectedScan(RobotPosition position) {
+		return expectedScan(position, null);
+	}
+
+	/*
+	 * This function computes the expected measurements like expectedScan and stores the obstacle cells hit
+	 * by the raycaster in hits (one pair of coordinates per beam, (-1, -1) if there is none), unless it is null.
+	 * Beams looked up in the table of expected ranges do not have a hit cell.
+	 */
+	double[] expectedScan(RobotPosition position, int[][] hits) {
+		int beams = getBeams();
+		if (expectedRanges != null && expectedRanges.contains(position.getX(), position.getY())) {
+			for (int i = 0; hits != null && i < beams; i++) {
+				hits[i][0] = -1;
+				hits[i][1] = -1;
+			}
+			return expectedRanges.getExpectedScan(position.getX(), position.getY(), position.getTheta(),
+					-parameters.getAngleRange(), parameters.getAngleStep(), beams);
+		}
+		Raycaster raycaster = getRaycaster();
+		double[] scan = new double[beams];
+		int[] hit = new int[2];
+		for (int i = 0; i < beams; i++) {
+			int completeAngle = position.getTheta() + i * parameters.getAngleStep() - parameters.getAngleRange();
+			scan[i] = raycaster.castRay(position.getX() + 0.5, position.getY() + 0.5, completeAngle,
+					parameters.getLaserRange(), hit);
+			if (hits != null) {
+				hits[i][0] = hit[0];
+				hits[i][1] = hit[1];
+			}
+		}
+		return scan;
+	}
+
+	/*
+	 * This function reverses the order of the beams of a simulated scan.
+	 * The simulation measures angles counterclockwise in the map picture (see Raycaster),
+	 * the pose search clockwise, so the same scan has its beams in reverse order
+	 * and the robot orientation 360 - theta for the pose search.
+	 */
+	public static void reverse(double[] scan) {
+		for (int l = 0, r = scan.length - 1; l < r; l++, r--) {
+			double swap = scan[l];
+			scan[l] = scan[r];
+			scan[r] = swap;
+		}
+	}
+
+	/*
+	 * This function simulates a noisy laser scan at the given position with the given random source:
+	 * the expected measurement of every beam is computed (see expectedScan)
+	 * and a noisy measurement is drawn for it from the sensor model. Beams without an obstacle within the
+	 * laser range are treated as beams without an observation.
+	 * It can be called from several threads at once, as long as every thread uses its own random source.
+	 */
+	public double[] simulateScan(RobotPosition position, SplittableRandom random) {
+		double[] scan = expectedScan(position, null);
+		for (int i = 0; i < scan.length; i++) {
+			double zExp = scan[i] >= parameters.getLaserRange() ? -1 : scan[i];
+			scan[i] = generateLaserMeasurement(zExp, random);
+		}
+		return scan;
+	}
+
+	/*
+	 * This function simulates a noisy laser scan for every given position. If a pool is given, the positions
+	 * are split into tasks run in that pool, otherwise the scans are simulated on the calling thread.
+	 * Every position gets its own random source, split off the seeded one in the order of the positions,
+	 * so the same seed always gives the same scans, no matter how many threads simulate them.
+	 */
+	public double[][] simulateScans(final RobotPosition[] positions, long seed, ForkJoinPool pool) {
+		final SplittableRandom[] randoms = new SplittableRandom[positions.length];
+		SplittableRandom random = new SplittableRandom(seed);
+		for (int i = 0; i < positions.length; i++) {
+			randoms[i] = random.split();
+		}
+		final double[][] scans = new double[positions.length][];
+		ScanWork work = new ScanWork() {
+			public void simulateScans(int from, int to) {
+				for (int i = from; i < to; i++) {
+					scans[i] = simulateScan(positions[i], randoms[i]);
+				}
+			}
+		};
+		if (pool == null) {
+			work.simulateScans(0, positions.length);
+		} else {
+			pool.invoke(new ScanTask(work, 0, positions.length));
+		}
+		return scans;
+	}
+
+	/*
+	 * This interface describes the simulation of the scans of a range of positions.
+	 */
+	private interface ScanWork {
+		void simulateScans(int from, int to);
+	}
+
+	/*
+	 * This class describes a task simulating the scans of a range of positions, which is split
+	 * in halves until the ranges are small enough.
+	 */
+	private static class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		// the number of positions every task simulates at least
+		private static final int POSITIONS_PER_TASK = 16;
+
+		private final ScanWork work;
+		private final int from;
+		private final int to;
+
+		ScanTask(ScanWork work, int from, int to) {
+			this.work = work;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= POSITIONS_PER_TASK) {
+				work.simulateScans(from, to);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ScanTask(work, from, middle), new ScanTask(work, middle, to));
+		}
+	}
+
+	/*
+	 * This function generates a measurement based on the expected measurement with the given random source.
+	 * A measurement z (in pixels) is drawn with the probability of being accepted by the rejection sampling
+	 * this function used to do: a random z and a random probability were drawn until the probability was below
+	 * the (smoothed) probability density of z, so z is drawn with a weight of min(1, density of z).
+	 * These weights are summed up to a cumulative distribution once per expected measurement (rounded to centimeters),
+	 * so each measurement only costs one random number and a binary search in that table.
+	 */
+	public double generateLaserMeasurement(double zExp, SplittableRandom random) {
+		double[] cumulative = cumulativeDistribution(zExp);
+		double u = random.nextDouble() * cumulative[cumulative.length - 1];
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulative[middle] > u)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return (low * parameters.getCmPerPixel() * 0.01);
+	}
+
+	/*
+	 * This function returns the cumulative distribution of the measurements for the given expected measurement.
+	 * The tables are computed at their first use, one for every expected measurement in centimeters
+	 * up to the laser range and one for the case without an observation (a negative expected measurement).
+	 * Expected measurements beyond the laser range are not cached.
+	 * Tables are created without locking; if two threads create the same table at the same time,
+	 * one of the (identical) tables is kept.
+	 */
+	private double[] cumulativeDistribution(double zExp) {
+		if (zExp > parameters.getLaserRange()) {
+			return computeCumulativeDistribution(zExp);
+		}
+		int key = zExp < 0 ? cumulativeDistributions.length() - 1 : (int) Math.round(zExp * 100);
+		double[] cumulative = cumulativeDistributions.get(key);
+		if (cumulative == null) {
+			cumulativeDistributions.compareAndSet(key, null,
+					computeCumulativeDistribution(zExp < 0 ? zExp : key * 0.01));
+			cumulative = cumulativeDistributions.get(key);
+		}
+		return cumulative;
+	}
+
+	/*
+	 * This function sums up the acceptance weights of all possible measurements
+	 * (from zero to the number of pixels that represent the max range of the laser).
+	 */
+	private double[] computeCumulativeDistribution(double zExp) {
+		double[] probalitiesPerMesurent = probabilityDensityFunction(zExp);
+		double[] cumulative = new double[(int) (parameters.getLaserRange() / (parameters
+				.getCmPerPixel() * 0.01))];
+		double sum = 0.0;
+		for (int z = 0; z < cumulative.length; z++) {
+			double probOfZ;
+			if (z - 1 >= 0 && z + 1 < probalitiesPerMesurent.length)
+				probOfZ = 3 * ((probalitiesPerMesurent[z - 1] + probalitiesPerMesurent[z + 1]) / 2);
+			else if (z - 1 < 0) {
+				probOfZ = 2 * ((probalitiesPerMesurent[z] + probalitiesPerMesurent[z + 1]) / 2);
+			} else {
+				probOfZ = 2 * ((probalitiesPerMesurent[z - 1] + probalitiesPerMesurent[z]) / 2);
+			}
+			sum += Math.min(1.0, probOfZ);
+			cumulative[z] = sum;
+		}
+		return cumulative;
+	}
+
+	/*
+	 * This function calculates the probability for the given parameters h, a1,
+	 * a2, a3, a4 and the measurements z and zExp. zExp is the expected
+	 * measurement for the current robot position and the angle of the laser ray
+	 * and it is calculated.
+	 */
+
+	private double probability(double h, double a1, double a2, double a3,
+			double a4, double z, double zExp) {
+
+		return h
+				* (a1 * hitProb(z, zExp) + a2 * unexpProb(z, zExp) + a3
+						* randProb() + a4 * maxProb(z));
+	}
+
+	private double probabilityWithNoObservation(double h, double a3, double a4,
+			double z) {
+
+		return h * (a3 * randProb() + a4 * maxProb(z));
+	}
+
+	/*
+	 * This function returns the probability of having a measurement z while
+	 * expecting a measurement zExp normalized by h.
+	 */
+
+	private double hitProb(double z, double zExp) {
+		return (1 / (Math.sqrt(2 * Math.PI * parameters.getB())) * Math
+				.exp(-(0.5) * ((Math.pow(z - zExp, 2)) / parameters.getB())));
+	}
+
+	/*
+	 * This functions returns the probability of having a measurement z while
+	 * expecting a measurement zExp and an unknown obstacle stands before the
+	 * expecting obstacle.
+	 */
+
+	private double unexpProb(double z, double zExp) {
+
+		if (z < zExp)
+			return parameters.getL() * Math.exp(-parameters.getL() * z);
+		return 0.0;
+	}
+
+	/*
+	 * This function returns the probability for a random measurement.
+	 */
+	private double randProb() {
+		return (Math.pow(parameters.getLaserRange(), -1));
+	}
+
+	/*
+	 * This function returns the probability for a maximum measurement.
+	 */
+	private double maxProb(double z) {
+		if ((parameters.getLaserRange()) - z <= parameters.getzSmall())
+			return (1 / parameters.getzSmall());
+		return 0.0;
+	}
+
+	/*
+	 * This function returns a matrix of double with the probability of the
+	 * corresponding measurement.
+	 */
+	public double[] probabilityDensityFunction(double zExp) {
+
+		double[] prob = new double[(int) (parameters.getLaserRange() / (parameters
+				.getCmPerPixel() * 0.01)) + 1];
+		double z, h = 1;
+		double a1, a2, a3, a4;
+
+		a1 = 2.5;
+		a2 = 1;
+		a3 = 0.2;
+		a4 = 0.05;
+
+		for (int i = 0; i < prob.length; i++) {
+			z = 0.05 * i;
+			if (zExp >= 0)
+				prob[i] = probability(h, a1, a2, a3, a4, z, zExp);
+			else
+				prob[i] = probabilityWithNoObservation(h, a3, a4, z);
+		}
+
+		double area = 0.0; // area is used for the calculation of
+							// the integral of the density function
+
+		for (int i = 0; i < prob.length - 1; i++) {
+			area = area + (prob[i] + prob[i + 1]) * 0.5;
+		}
+
+		while (area > 1.000000001 || area < 0.0000000001) {
+			h = Math.pow(area, -1);
+
+			for (int i = 0; i < prob.length; i++) {
+				z = 0.01 * parameters.getCmPerPixel() * i;
+				prob[i] = h * prob[i];
+			}
+			area = 0.0;
+			for (int i = 0; i < prob.length - 1; i++) {
+				area = area + (prob[i] + prob[i + 1]) * 0.5;
+			}
+		}
+		return prob;
+	}
+}
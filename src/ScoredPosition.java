@@ -0,0 +1,57 @@
+/*
+ * This class describes a robot position together with the likelihood
+ * that the pose search has determined for the measurements at that position.
+ */
+public class ScoredPosition {
+
+	private final RobotPosition position;
+	private final double score;
+
+	public ScoredPosition(RobotPosition position, double score) {
+		this.position = position;
+		this.score = score;
+	}
+
+	public RobotPosition getPosition() {
+		return position;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	/*
+	 * This function checks whether this position is better than the given one.
+	 * The position with the higher score is better. If both scores are the same,
+	 * the position that comes first in the order of the exhaustive search
+	 * (by x first, y second and theta last) is better.
+	 */
+	public boolean isBetterThan(ScoredPosition other) {
+		if (other == null || score > other.score) {
+			return true;
+		}
+		if (score < other.score) {
+			return false;
+		}
+		return comesBefore(position.getX(), position.getY(), position.getTheta(), other.position);
+	}
+
+	/*
+	 * This function checks whether the pose (x, y, theta) comes before the given position
+	 * in the order of the exhaustive search.
+	 */
+	public static boolean comesBefore(int x, int y, int theta, RobotPosition other) {
+		if (x != other.getX()) {
+			return x < other.getX();
+		}
+		if (y != other.getY()) {
+			return y < other.getY();
+		}
+		return theta < other.getTheta();
+	}
+
+	public String toString() {
+		return "x=" + position.getX() + " y=" + position.getY()
+				+ " theta=" + position.getTheta() + " score=" + score;
+	}
+}
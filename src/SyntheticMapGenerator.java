@@ -0,0 +1,276 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * This class generates maps of buildings of any size, e.g. to benchmark the localization
+ * on maps that are larger or more cluttered than the map of the assignment.
+ * The building is divided into rooms by binary space partitioning: a region that is large enough
+ * is split either by a wall with a door or by a corridor between two walls with doors,
+ * and both parts are split further, until they are too small and become rooms.
+ * Every room is cluttered with random boxes (the furniture) until the given fraction of its area is covered.
+ * The boxes keep a door width away from the walls, so the doors and the space along the walls stay free
+ * and every room can be reached (free space enclosed by boxes can still be unreachable).
+ * The same seed always gives the same map.
+ */
+public class SyntheticMapGenerator {
+
+	// the chance that a region is split by a corridor instead of a single wall
+	private static final double CORRIDOR_PROBABILITY = 0.3;
+	// the number of positions tried for a wall before the region is left as a room
+	private static final int WALL_ATTEMPTS = 10;
+	// the number of boxes tried in a room before it is left less cluttered than asked for
+	private static final int BOX_ATTEMPTS = 1000;
+
+	// all sizes are given in cells
+	private final int roomSize;
+	private final int corridorWidth;
+	private final int doorWidth;
+	private final int wallThickness;
+	private final int minBoxSize;
+	private final int maxBoxSize;
+	// the fraction of the area of every room covered by boxes
+	private final double clutterDensity;
+
+	/*
+	 * This function is the constructor with the sizes of a typical office building for the given size of a cell:
+	 * rooms of at least 4 m, corridors of 2 m, doors of 1 m, walls of 20 cm and boxes from 20 cm to 1.2 m.
+	 */
+	public SyntheticMapGenerator(int cmPerPixel, double clutterDensity) {
+		this(cells(400, cmPerPixel), cells(200, cmPerPixel), cells(100, cmPerPixel), cells(20, cmPerPixel),
+				cells(20, cmPerPixel), cells(120, cmPerPixel), clutterDensity);
+	}
+
+	/*
+	 * This function is the constructor with all sizes given in cells.
+	 * The smallest side of a room is roomSize, the largest one is less than twice as much.
+	 */
+	public SyntheticMapGenerator(int roomSize, int corridorWidth, int doorWidth, int wallThickness, int minBoxSize,
+			int maxBoxSize, double clutterDensity) {
+		if (wallThickness < 1 || doorWidth < 1 || corridorWidth < 1 || minBoxSize < 1 || maxBoxSize < minBoxSize) {
+			throw new IllegalArgumentException("Invalid sizes");
+		}
+		if (roomSize <= doorWidth) {
+			throw new IllegalArgumentException("A room of size " + roomSize + " cannot have a door of " + doorWidth);
+		}
+		if (clutterDensity < 0 || clutterDensity >= 1) {
+			throw new IllegalArgumentException("Invalid clutter density " + clutterDensity);
+		}
+		this.roomSize = roomSize;
+		this.corridorWidth = corridorWidth;
+		this.doorWidth = doorWidth;
+		this.wallThickness = wallThickness;
+		this.minBoxSize = minBoxSize;
+		this.maxBoxSize = maxBoxSize;
+		this.clutterDensity = clutterDensity;
+	}
+
+	/*
+	 * This function returns the number of cells (at least one) of the given length in centimeters.
+	 */
+	private static int cells(int centimeters, int cmPerPixel) {
+		return Math.max(1, Math.round((float) centimeters / cmPerPixel));
+	}
+
+	/*
+	 * This function generates the occupancy grid of a building of the given size in cells.
+	 */
+	public OccupancyGrid generate(int width, int height, long seed) {
+		return new OccupancyGrid(width, height, generateCells(width, height, seed));
+	}
+
+	/*
+	 * This function generates the picture of a building of the given size in pixels, in the colours of the map
+	 * of the assignment (black obstacles on white), e.g. for the MeasurementGenerator.
+	 */
+	public BufferedImage generatePicture(int width, int height, long seed) {
+		byte[] cells = generateCells(width, height, seed);
+		int[] rgb = new int[cells.length];
+		int black = Color.BLACK.getRGB();
+		int white = Color.WHITE.getRGB();
+		for (int i = 0; i < cells.length; i++) {
+			rgb[i] = cells[i] == OccupancyGrid.OCCUPIED ? black : white;
+		}
+		BufferedImage picture = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		picture.setRGB(0, 0, width, height, rgb, 0, width);
+		return picture;
+	}
+
+	/*
+	 * This function generates the cells of a building of the given size in row-major order:
+	 * the outer walls are drawn and the space inside is split into rooms.
+	 */
+	private byte[] generateCells(int width, int height, long seed) {
+		if (width <= 2 * wallThickness || height <= 2 * wallThickness) {
+			throw new IllegalArgumentException("The map " + width + "x" + height + " is too small for its walls");
+		}
+		Building building = new Building(width, height, new Random(seed));
+		int right = width - wallThickness;
+		int bottom = height - wallThickness;
+		building.fill(0, 0, width, wallThickness, OccupancyGrid.OCCUPIED);
+		building.fill(0, bottom, width, height, OccupancyGrid.OCCUPIED);
+		building.fill(0, 0, wallThickness, height, OccupancyGrid.OCCUPIED);
+		building.fill(right, 0, width, height, OccupancyGrid.OCCUPIED);
+		split(building, wallThickness, wallThickness, right, bottom);
+		return building.cells;
+	}
+
+	/*
+	 * This function splits the free region [left, right) x [top, bottom) by a wall or a corridor across its longer side,
+	 * at a random position that leaves at least a room on both sides and does not block any door of the walls around it,
+	 * and splits both parts further. A region too small to be split (or without such a position) becomes a room.
+	 */
+	private void split(Building building, int left, int top, int right, int bottom) {
+		Random random = building.random;
+		int width = right - left;
+		int height = bottom - top;
+		boolean splitX = width >= 2 * roomSize + wallThickness;
+		boolean splitY = height >= 2 * roomSize + wallThickness;
+		if (!splitX && !splitY) {
+			clutter(building, left, top, right, bottom);
+			return;
+		}
+		// a vertical wall splits the x range, a horizontal one the y range
+		boolean vertical = splitX && (!splitY || width > height || (width == height && random.nextBoolean()));
+		int start = vertical ? left : top;
+		int length = vertical ? width : height;
+		boolean corridor = random.nextDouble() < CORRIDOR_PROBABILITY
+				&& length >= 2 * roomSize + 2 * wallThickness + corridorWidth;
+		int thickness = corridor ? 2 * wallThickness + corridorWidth : wallThickness;
+
+		for (int attempt = 0; attempt < WALL_ATTEMPTS; attempt++) {
+			int position = start + roomSize + random.nextInt(length - 2 * roomSize - thickness + 1);
+			boolean blocked = vertical ? building.touchesDoor(position, top - 1, position + thickness, bottom + 1)
+					: building.touchesDoor(left - 1, position, right + 1, position + thickness);
+			if (blocked) {
+				continue;
+			}
+			if (corridor) {
+				wall(building, vertical, position, left, top, right, bottom);
+				wall(building, vertical, position + wallThickness + corridorWidth, left, top, right, bottom);
+			} else {
+				wall(building, vertical, position, left, top, right, bottom);
+			}
+			int end = position + thickness;
+			if (vertical) {
+				split(building, left, top, position, bottom);
+				split(building, end, top, right, bottom);
+			} else {
+				split(building, left, top, right, position);
+				split(building, left, end, right, bottom);
+			}
+			return;
+		}
+		clutter(building, left, top, right, bottom);
+	}
+
+	/*
+	 * This function draws a wall across the region [left, right) x [top, bottom) at the given position,
+	 * vertical or horizontal, with a door for every two room sizes of its length (at least one)
+	 * at a random place within its share of the wall.
+	 */
+	private void wall(Building building, boolean vertical, int position, int left, int top, int right, int bottom) {
+		int end = position + wallThickness;
+		if (vertical) {
+			building.fill(position, top, end, bottom, OccupancyGrid.OCCUPIED);
+		} else {
+			building.fill(left, position, right, end, OccupancyGrid.OCCUPIED);
+		}
+		int spanStart = vertical ? top : left;
+		int span = vertical ? bottom - top : right - left;
+		int doors = Math.max(1, span / (2 * roomSize));
+		for (int d = 0; d < doors; d++) {
+			int from = spanStart + span * d / doors;
+			int to = spanStart + span * (d + 1) / doors;
+			int door = from + building.random.nextInt(to - from - doorWidth + 1);
+			if (vertical) {
+				building.door(position, door, end, door + doorWidth);
+			} else {
+				building.door(door, position, door + doorWidth, end);
+			}
+		}
+	}
+
+	/*
+	 * This function places random boxes in the room [left, right) x [top, bottom), a door width away from its walls,
+	 * until the clutter density of the room is reached or no more boxes fit.
+	 */
+	private void clutter(Building building, int left, int top, int right, int bottom) {
+		Random random = building.random;
+		int target = (int) (clutterDensity * (right - left) * (bottom - top));
+		left += doorWidth;
+		top += doorWidth;
+		right -= doorWidth;
+		bottom -= doorWidth;
+		if (right <= left || bottom <= top) {
+			return;
+		}
+		int covered = 0;
+		for (int attempt = 0; attempt < BOX_ATTEMPTS && covered < target; attempt++) {
+			int boxWidth = Math.min(right - left, minBoxSize + random.nextInt(maxBoxSize - minBoxSize + 1));
+			int boxHeight = Math.min(bottom - top, minBoxSize + random.nextInt(maxBoxSize - minBoxSize + 1));
+			int x = left + random.nextInt(right - left - boxWidth + 1);
+			int y = top + random.nextInt(bottom - top - boxHeight + 1);
+			covered += building.fill(x, y, x + boxWidth, y + boxHeight, OccupancyGrid.OCCUPIED);
+		}
+	}
+
+	/*
+	 * This class describes a building while it is generated: its cells, the doors drawn so far and the random source.
+	 */
+	private static class Building {
+
+		private final int width;
+		private final byte[] cells;
+		private final Random random;
+		// the rectangles (left, top, right, bottom) of all doors
+		private final List<int[]> doors = new ArrayList<int[]>();
+
+		Building(int width, int height, Random random) {
+			this.width = width;
+			this.cells = new byte[width * height];
+			this.random = random;
+			Arrays.fill(cells, OccupancyGrid.FREE);
+		}
+
+		/*
+		 * This function sets the state of all cells of the rectangle [left, right) x [top, bottom)
+		 * and returns the number of cells that have changed.
+		 */
+		int fill(int left, int top, int right, int bottom, byte state) {
+			int changed = 0;
+			for (int y = top; y < bottom; y++) {
+				for (int x = left; x < right; x++) {
+					if (cells[y * width + x] != state) {
+						cells[y * width + x] = state;
+						changed++;
+					}
+				}
+			}
+			return changed;
+		}
+
+		/*
+		 * This function opens a door in a wall.
+		 */
+		void door(int left, int top, int right, int bottom) {
+			fill(left, top, right, bottom, OccupancyGrid.FREE);
+			doors.add(new int[] { left, top, right, bottom });
+		}
+
+		/*
+		 * This function checks whether the rectangle [left, right) x [top, bottom) overlaps any door.
+		 */
+		boolean touchesDoor(int left, int top, int right, int bottom) {
+			for (int[] door : doors) {
+				if (left < door[2] && door[0] < right && top < door[3] && door[1] < bottom) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
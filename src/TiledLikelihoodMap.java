@@ -0,0 +1,118 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * This class describes the likelihood map of the lowest distance approach, which is created tile by tile
+ * only when a position in a tile is looked up for the first time.
+ * This way a query that only looks at a part of the map (for example a robot that is tracked locally)
+ * never pays for the rest of the map.
+ * The likelihood of a pixel only depends on the obstacles within the calculation range, so a tile is created from
+ * the distance transform of the tile extended by the calculation range on every side. The maximum likelihood used
+ * for the normalisation is the likelihood of an obstacle pixel itself, which is known in advance,
+ * so every tile has exactly the same values as the complete likelihood map.
+ * Tiles are created without locking; if two threads create the same tile at the same time, one of the
+ * (identical) tiles is kept.
+ */
+public class TiledLikelihoodMap {
+
+	// the width and height of a tile in pixels
+	public static final int TILE_SIZE = 64;
+
+	private final OccupancyGrid grid;
+	// the gaussian probability for every squared distance in pixels to the nearest obstacle
+	private final double[] gaussianBySquaredDistance;
+	private final int pixelCalculationRange;
+	private final double minProbability;
+	private final double maxLikelihood;
+	private final int tilesX;
+	private final int tilesY;
+	private final AtomicReferenceArray<double[][]> tiles;
+
+	public TiledLikelihoodMap(OccupancyGrid grid, double[] gaussianBySquaredDistance,
+			int pixelCalculationRange, double minProbability) {
+		this.grid = grid;
+		this.gaussianBySquaredDistance = gaussianBySquaredDistance;
+		this.pixelCalculationRange = pixelCalculationRange;
+		this.minProbability = minProbability;
+		this.maxLikelihood = grid.getObstacleCells().length > 0 ? gaussianBySquaredDistance[0] : 0.0;
+		this.tilesX = (grid.getWidth() + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (grid.getHeight() + TILE_SIZE - 1) / TILE_SIZE;
+		this.tiles = new AtomicReferenceArray<double[][]>(tilesX * tilesY);
+	}
+
+	/*
+	 * This function returns the likelihood of the given pixel, creating its tile if necessary.
+	 */
+	public double get(int x, int y) {
+		int tile = (x / TILE_SIZE) * tilesY + y / TILE_SIZE;
+		double[][] likelihoods = tiles.get(tile);
+		if (likelihoods == null) {
+			tiles.compareAndSet(tile, null,
+					computeWindow(x - x % TILE_SIZE, y - y % TILE_SIZE, TILE_SIZE, TILE_SIZE));
+			likelihoods = tiles.get(tile);
+		}
+		return likelihoods[x % TILE_SIZE][y % TILE_SIZE];
+	}
+
+	/*
+	 * This function returns the likelihood of pixels without any obstacle within the calculation range.
+	 */
+	public double getEmptyLikelihood() {
+		return minProbability / maxLikelihood;
+	}
+
+	/*
+	 * This function returns the number of tiles that have been created so far.
+	 */
+	public int getCreatedTiles() {
+		int created = 0;
+		for (int i = 0; i < tiles.length(); i++) {
+			if (tiles.get(i) != null) {
+				created++;
+			}
+		}
+		return created;
+	}
+
+	/*
+	 * This function creates the complete likelihood map at once, without keeping any tiles.
+	 */
+	public double[][] toArray() {
+		return computeWindow(0, 0, grid.getWidth(), grid.getHeight());
+	}
+
+	/*
+	 * This function computes the normalised likelihoods of the window with the upper left corner (left, top)
+	 * and the given size (limited to the map). The probability of a pixel is looked up in the table of gaussian
+	 * probabilities per squared distance to its nearest obstacle. Pixels whose nearest obstacle is outside of the
+	 * calculation range get the minimal probability. All probabilities are divided by the maximum likelihood.
+	 */
+	private double[][] computeWindow(int left, int top, int width, int height) {
+		Metrics.Timer timer = Metrics.start(Metrics.Phase.FIELD_BUILD);
+		width = Math.min(width, grid.getWidth() - left);
+		height = Math.min(height, grid.getHeight() - top);
+		int extendedLeft = Math.max(0, left - pixelCalculationRange);
+		int extendedTop = Math.max(0, top - pixelCalculationRange);
+		int extendedWidth = Math.min(grid.getWidth(), left + width + pixelCalculationRange) - extendedLeft;
+		int extendedHeight = Math.min(grid.getHeight(), top + height + pixelCalculationRange) - extendedTop;
+		int[] squaredDistances = DistanceTransform.squaredDistances(grid,
+				extendedLeft, extendedTop, extendedWidth, extendedHeight);
+
+		double[][] likelihoods = new double[width][height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				int squaredDistance = squaredDistances[(top + j - extendedTop) * extendedWidth + left + i - extendedLeft];
+				double probability = 0.0;
+				if (squaredDistance < gaussianBySquaredDistance.length) {
+					probability = gaussianBySquaredDistance[squaredDistance];
+				}
+				if (probability == 0) {
+					probability = minProbability;
+				}
+				likelihoods[i][j] = probability / maxLikelihood;
+			}
+		}
+		Metrics.add(Metrics.Counter.CELLS, (long) width * height);
+		timer.stop((long) width * height);
+		return likelihoods;
+	}
+}
@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/*
+ * This class collects the K best robot poses out of a stream of scored poses.
+ * It keeps the poses in a heap with the worst of them on top, so a new pose only has to be
+ * compared to that worst pose and is dropped without any allocation if it cannot get in.
+ * Poses are ordered as in ScoredPosition: by score, then in the order of the exhaustive search.
+ * Collections of different threads can be merged, the result does not depend on the order of merging.
+ */
+public class TopKPositions {
+
+	// orders the poses from the worst to the best
+	private static final Comparator<ScoredPosition> WORST_FIRST = new Comparator<ScoredPosition>() {
+		public int compare(ScoredPosition a, ScoredPosition b) {
+			if (a.isBetterThan(b)) {
+				return 1;
+			}
+			return b.isBetterThan(a) ? -1 : 0;
+		}
+	};
+
+	private final int k;
+	private final PriorityQueue<ScoredPosition> heap;
+
+	public TopKPositions(int k) {
+		if (k < 1) {
+			throw new IllegalArgumentException("At least one pose has to be collected");
+		}
+		this.k = k;
+		this.heap = new PriorityQueue<ScoredPosition>(k, WORST_FIRST);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public boolean isFull() {
+		return heap.size() == k;
+	}
+
+	/*
+	 * This function returns the worst of the collected poses, or null if there is none yet.
+	 */
+	public ScoredPosition getWorst() {
+		return heap.peek();
+	}
+
+	/*
+	 * This function checks whether a pose with the given score would get into the collection.
+	 */
+	public boolean accepts(double score, int x, int y, int theta) {
+		if (!isFull()) {
+			return true;
+		}
+		ScoredPosition worst = heap.peek();
+		if (score != worst.getScore()) {
+			return score > worst.getScore();
+		}
+		return ScoredPosition.comesBefore(x, y, theta, worst.getPosition());
+	}
+
+	/*
+	 * This function adds the pose to the collection if it is one of the K best poses so far.
+	 */
+	public void offer(double score, int x, int y, int theta) {
+		if (accepts(score, x, y, theta)) {
+			add(new ScoredPosition(new RobotPosition(x, y, theta), score));
+		}
+	}
+
+	/*
+	 * This function adds all poses of the other collection to this one.
+	 */
+	public void merge(TopKPositions other) {
+		for (ScoredPosition position : other.heap) {
+			RobotPosition pose = position.getPosition();
+			if (accepts(position.getScore(), pose.getX(), pose.getY(), pose.getTheta())) {
+				add(position);
+			}
+		}
+	}
+
+	private void add(ScoredPosition position) {
+		if (isFull()) {
+			heap.poll();
+		}
+		heap.add(position);
+	}
+
+	/*
+	 * This function returns the collected poses, the best one first.
+	 */
+	public List<ScoredPosition> getPositions() {
+		List<ScoredPosition> positions = new ArrayList<ScoredPosition>(heap);
+		Collections.sort(positions, Collections.reverseOrder(WORST_FIRST));
+		return positions;
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * This interface describes a receiver of debug traces of the measurement generator,
+ * e.g. the cells a laser ray passes and the obstacles it hits, for visualisation.
+ * The default sink NONE ignores everything, so computations without tracing do not pay for any rendering.
+ */
+public interface TraceSink {
+
+	/*
+	 * The kinds of cells that are traced.
+	 */
+	enum Event {
+		ROBOT, // the position of the robot
+		PATH, // a cell a laser ray passes
+		END_POINT, // the farthest point of a laser ray within the map
+		OBSTACLE, // the first obstacle found on a laser ray
+		HIT, // the obstacle cell where a ray cast ends
+		NEAREST_OBSTACLE, // the nearest obstacle of a beam found by exploring the laser space
+		MEASUREMENT // the end point of a noisy measurement
+	}
+
+	// the sink that ignores all traces
+	TraceSink NONE = new TraceSink() {
+		public void trace(int x, int y, Event event) {
+		}
+	};
+
+	void trace(int x, int y, Event event);
+}
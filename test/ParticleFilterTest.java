@@ -0,0 +1,115 @@
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/*
+ * This class tests that the particle filter tracks a robot on a short simulated drive through a room:
+ * straight ahead, a turn on the spot and straight ahead again. The scans are the expected scans of the simulator
+ * at the true poses, and the filter is seeded, so every run is the same.
+ */
+public class ParticleFilterTest {
+
+	// the estimate has to be this close to the true pose (in pixels and degrees)
+	private static final int POSITION_TOLERANCE = 3;
+	private static final int THETA_TOLERANCE = 10;
+
+	@Test
+	public void tracksTheDriveFromAKnownStart() {
+		PositionFinder finder = new PositionFinder(room(), null);
+		ParticleFilter filter = new ParticleFilter(finder, true, 200, 2000, 1);
+		filter.initialise(new RobotPosition(42, 52, 5), 3, 5);
+		drive(finder, filter, new ModelParameters(10, 5, 135, 5, 0.8, 0.4, 0.1), true);
+	}
+
+	@Test
+	public void findsTheRobotFromAGlobalStart() {
+		PositionFinder finder = new PositionFinder(room(), null);
+		ParticleFilter filter = new ParticleFilter(finder, true, 200, 5000, 2);
+		filter.initialiseGlobally();
+		drive(finder, filter, new ModelParameters(10, 5, 135, 5, 0.8, 0.4, 0.1), false);
+	}
+
+	@Test
+	public void usesTheScanAnglesOfThePositionFinder() {
+		ModelParameters parameters = new ModelParameters(10, 5, 135, 15, 0.8, 0.4, 0.1);
+		PositionFinder finder = new PositionFinder(room(), null);
+		finder.setScanAngles(parameters);
+		ParticleFilter filter = new ParticleFilter(finder, false, 200, 2000, 3);
+		filter.initialise(new RobotPosition(42, 52, 5), 3, 5);
+		drive(finder, filter, parameters, true);
+	}
+
+	/*
+	 * This function drives the robot from (40, 50) 50 pixels ahead (east), turns it by 90 degrees on the spot
+	 * (to the south, the y axis of the map points down) and drives it 30 pixels ahead again.
+	 * The estimate of the filter is checked after every update if tracking is true, otherwise only at the end.
+	 */
+	private static void drive(PositionFinder finder, ParticleFilter filter, ModelParameters parameters,
+			boolean tracking) {
+		ScanSimulator simulator = new ScanSimulator(finder.getGrid(), parameters);
+		int x = 40;
+		int y = 50;
+		int theta = 0;
+		for (int step = 0; step < 25; step++) {
+			x += 2;
+			update(filter, simulator, x, y, theta, 0.1, 0, tracking);
+		}
+		for (int step = 0; step < 6; step++) {
+			theta += 15;
+			update(filter, simulator, x, y, theta, 0, 15, tracking);
+		}
+		for (int step = 0; step < 15; step++) {
+			y += 2;
+			update(filter, simulator, x, y, theta, 0.1, 0, true);
+		}
+	}
+
+	/*
+	 * This function updates the filter with the odometry and the scan at the true pose (x, y, theta).
+	 * The simulator measures angles the other way round than the filter (see ScanSimulator.reverse),
+	 * so it is asked for the mirrored orientation and the beams are reversed.
+	 */
+	private static void update(ParticleFilter filter, ScanSimulator simulator, int x, int y, int theta,
+			double forward, double rotation, boolean check) {
+		double[] scan = simulator.expectedScan(new RobotPosition(x, y, (360 - theta) % 360));
+		ScanSimulator.reverse(scan);
+		filter.update(scan, forward, 0, rotation);
+		if (!check) {
+			return;
+		}
+		RobotPosition estimate = filter.getEstimate();
+		int angle = Math.abs(estimate.getTheta() - theta) % 360;
+		String message = "estimate " + estimate.getX() + ", " + estimate.getY() + ", " + estimate.getTheta()
+				+ " for " + x + ", " + y + ", " + theta;
+		assertTrue(message, Math.abs(estimate.getX() - x) <= POSITION_TOLERANCE);
+		assertTrue(message, Math.abs(estimate.getY() - y) <= POSITION_TOLERANCE);
+		assertTrue(message, Math.min(angle, 360 - angle) <= THETA_TOLERANCE);
+	}
+
+	/*
+	 * This function returns a walled room of 200 x 120 pixels with three boxes in it, placed such that
+	 * the room does not look the same from any two places.
+	 */
+	private static OccupancyGrid room() {
+		int width = 200;
+		int height = 120;
+		byte[] cells = new byte[width * height];
+		Arrays.fill(cells, OccupancyGrid.FREE);
+		fill(cells, width, 0, 0, width, 4);
+		fill(cells, width, 0, height - 4, width, height);
+		fill(cells, width, 0, 0, 4, height);
+		fill(cells, width, width - 4, 0, width, height);
+		fill(cells, width, 120, 15, 140, 40);
+		fill(cells, width, 25, 90, 45, 110);
+		fill(cells, width, 155, 70, 175, 100);
+		return new OccupancyGrid(width, height, cells);
+	}
+
+	private static void fill(byte[] cells, int width, int left, int top, int right, int bottom) {
+		for (int y = top; y < bottom; y++) {
+			Arrays.fill(cells, y * width + left, y * width + right, OccupancyGrid.OCCUPIED);
+		}
+	}
+}
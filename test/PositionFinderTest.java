@@ -0,0 +1,135 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/*
+ * This class tests that the cascaded exhaustive search (findBestPoses), which rejects blocks and poses early
+ * by bounds of their likelihoods, finds exactly the same poses with exactly the same scores as a plain search
+ * that scores every orientation at every candidate position with all beams.
+ * The scans are simulated at random poses of synthetic buildings, with and without the noise of the sensor,
+ * and searched in both likelihood maps.
+ */
+public class PositionFinderTest {
+
+	private static final ModelParameters PARAMETERS = new ModelParameters(10, 5, 135, 5, 0.8, 0.4, 0.1);
+	private static final int SCANS = 2;
+
+	@Test
+	public void cascadeFindsTheBestPoseOfTheLowestDistanceMap() {
+		checkCascade(true, 1, 0);
+	}
+
+	@Test
+	public void cascadeFindsTheBestPoseOfTheSummedUpMap() {
+		checkCascade(false, 1, 0);
+	}
+
+	@Test
+	public void cascadeFindsTheBestPosesOfTheLowestDistanceMap() {
+		checkCascade(true, 20, 0);
+	}
+
+	@Test
+	public void cascadeFindsTheBestPosesOfTheSummedUpMap() {
+		checkCascade(false, 20, 0);
+	}
+
+	@Test
+	public void cascadeFindsTheBestPosesAmongRestrictedCandidates() {
+		checkCascade(true, 20, 4);
+		checkCascade(false, 20, 4);
+	}
+
+	@Test
+	public void parallelCascadeFindsTheSameBestPoses() {
+		OccupancyGrid grid = new SyntheticMapGenerator(PARAMETERS.getCmPerPixel(), 0.1).generate(160, 100, 3);
+		PositionFinder finder = new PositionFinder(grid, null);
+		double[][] scans = simulateScans(grid, new CandidateIndex(grid), true, 3);
+		finder.setParallelism(3);
+		try {
+			for (double[] scan : scans) {
+				assertSamePoses(plainSearch(finder, scan, false, 20), finder.findBestPoses(scan, false, 20));
+			}
+		} finally {
+			finder.setParallelism(1);
+		}
+	}
+
+	/*
+	 * This function compares the cascaded search with the plain search for noisy and noise-free scans
+	 * of a cluttered building, with all free cells or only those with the given clearance as candidates.
+	 */
+	private void checkCascade(boolean lowestDistanceApproach, int k, int clearance) {
+		OccupancyGrid grid = new SyntheticMapGenerator(PARAMETERS.getCmPerPixel(), 0.1).generate(160, 100, 1);
+		PositionFinder finder = new PositionFinder(grid, null);
+		CandidateIndex candidates = new CandidateIndex(grid, clearance);
+		finder.setCandidates(candidates);
+		for (boolean noise : new boolean[] { true, false }) {
+			for (double[] scan : simulateScans(grid, candidates, noise, 2)) {
+				assertSamePoses(plainSearch(finder, scan, lowestDistanceApproach, k),
+						finder.findBestPoses(scan, lowestDistanceApproach, k));
+			}
+		}
+	}
+
+	/*
+	 * This function returns the k best poses by scoring every orientation at every candidate position exactly.
+	 */
+	private static List<ScoredPosition> plainSearch(PositionFinder finder, double[] scan,
+			boolean lowestDistanceApproach, int k) {
+		double[][] probabilities = lowestDistanceApproach ? finder.getLowestDistanceLikelihoodMap()
+				: finder.getSummedUpLikelihoodMap();
+		BeamOffsetTable offsets = finder.beamOffsets(scan);
+		CandidateIndex candidates = finder.getCandidates();
+		TopKPositions best = new TopKPositions(k);
+		for (int c = 0; c < candidates.size(); c++) {
+			int x = candidates.getX(c);
+			int y = candidates.getY(c);
+			for (int h = 0; h < offsets.getHeadings(); h++) {
+				best.offer(finder.score(probabilities, offsets, h, x, y), x, y, offsets.getTheta(h));
+			}
+		}
+		return best.getPositions();
+	}
+
+	/*
+	 * This function checks that both searches have found the same poses in the same order with the same scores.
+	 */
+	private static void assertSamePoses(List<ScoredPosition> expected, List<ScoredPosition> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			RobotPosition expectedPose = expected.get(i).getPosition();
+			RobotPosition actualPose = actual.get(i).getPosition();
+			String pose = "pose " + i;
+			assertEquals(pose, expectedPose.getX(), actualPose.getX());
+			assertEquals(pose, expectedPose.getY(), actualPose.getY());
+			assertEquals(pose, expectedPose.getTheta(), actualPose.getTheta());
+			assertEquals(pose, expected.get(i).getScore(), actual.get(i).getScore(), 0.0);
+		}
+	}
+
+	/*
+	 * This function simulates scans at random candidate poses, in the beam order of the pose search
+	 * (the simulation measures angles the other way round, see ScanSimulator.reverse).
+	 */
+	private static double[][] simulateScans(OccupancyGrid grid, CandidateIndex candidates, boolean noise, long seed) {
+		Random random = new Random(seed);
+		RobotPosition[] positions = new RobotPosition[SCANS];
+		for (int i = 0; i < SCANS; i++) {
+			int candidate = random.nextInt(candidates.size());
+			positions[i] = new RobotPosition(candidates.getX(candidate), candidates.getY(candidate),
+					5 * random.nextInt(72));
+		}
+		ScanSimulator simulator = new ScanSimulator(grid, PARAMETERS);
+		double[][] scans = new double[SCANS][];
+		for (int i = 0; i < SCANS; i++) {
+			scans[i] = noise ? simulator.simulateScans(new RobotPosition[] { positions[i] }, seed + i, null)[0]
+					: simulator.expectedScan(positions[i]);
+			ScanSimulator.reverse(scans[i]);
+		}
+		return scans;
+	}
+}